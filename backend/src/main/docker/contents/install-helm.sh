@@ -6,13 +6,8 @@
 appName="${1}"
 helmChartLocation="${2}"
 
-# Temp debugging
+# The server only calls this when it can't find the release itself, but check again in case it was installed since
 echo "Deploying application ${appName} with chart ${helmChartLocation}"
-echo "Which project are we using:"
-oc project
-echo "Which user is invoking the chart:"
-oc whoami
-
 
 helm list --filter "${appName}$" | grep -q "${appName}" && found=1 || found=0
 
@@ -1,18 +1,36 @@
 package org.wildfly.managed;
 
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
 import org.hibernate.exception.ConstraintViolationException;
+import org.jboss.logging.Logger;
 import org.jboss.resteasy.reactive.MultipartForm;
 import org.jboss.resteasy.reactive.ResponseStatus;
 import org.jboss.resteasy.reactive.RestResponse;
+import org.jboss.resteasy.reactive.RestStreamElementType;
 import org.jboss.resteasy.reactive.server.ServerExceptionMapper;
 import org.wildfly.managed.common.model.AppArchive;
 import org.wildfly.managed.common.model.Application;
 import org.wildfly.managed.common.model.DatabaseConnection;
+import org.wildfly.managed.common.model.DeployJob;
 import org.wildfly.managed.common.model.DeploymentRecord;
+import org.wildfly.managed.common.model.DeploymentStats;
 import org.wildfly.managed.common.value.AppState;
+import org.wildfly.managed.common.value.ArchiveUpload;
+import org.wildfly.managed.common.value.BulkDeploy;
+import org.wildfly.managed.common.value.BulkDeployEvent;
 import org.wildfly.managed.config.UiPaths;
+import org.wildfly.managed.deploy.DeployJobQueue;
+import org.wildfly.managed.openshift.AppStatusWatcher;
 import org.wildfly.managed.openshift.OpenshiftFacade;
 import org.wildfly.managed.repo.ApplicationRepo;
+import org.wildfly.managed.repo.ApplicationSummary;
+import org.wildfly.managed.repo.DeployJobRepo;
+import org.wildfly.managed.repo.DeploymentHistoryRepo;
+import org.wildfly.managed.repo.ReactiveApplicationRepo;
+import org.wildfly.managed.store.ArchiveStore;
+import org.wildfly.managed.store.ArchiveUploads;
+import org.wildfly.managed.store.ConfigFileCache;
 
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
@@ -26,13 +44,24 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import static org.wildfly.managed.common.util.Constants.WEB_ERROR_DESCRIPTION_HEADER_NAME;
 
 @Path("/app")
 public class ApplicationResource {
+    private static final Logger log = Logger.getLogger(ApplicationResource.class);
+    // Paths under /app which would shadow the endpoints of applications with these names
+    private static final Set<String> RESERVED_NAMES = Set.of("status", "deploy");
 
 
     @Inject
@@ -41,24 +70,65 @@ public class ApplicationResource {
     @Inject
     ApplicationRepo applicationRepo;
 
+    @Inject
+    ReactiveApplicationRepo reactiveApplicationRepo;
+
     @Inject
     OpenshiftFacade openshiftFacade;
 
+    @Inject
+    AppStatusWatcher appStatusWatcher;
+
+    @Inject
+    ArchiveStore archiveStore;
+
+    @Inject
+    ArchiveUploads archiveUploads;
+
+    @Inject
+    ConfigFileCache configFileCache;
+
+    @Inject
+    DeployJobQueue deployJobQueue;
+
+    @Inject
+    DeployJobRepo deployJobRepo;
+
+    @Inject
+    DeploymentHistoryRepo deploymentHistoryRepo;
+
+    @Inject
+    BlockingExecutor blockingExecutor;
+
+    // The read endpoints return Uni so that they run on the event loop. The list and status endpoints are polled the
+    // most, so get their data from the reactive Postgres client and the local cache of the OpenShift state. The ones
+    // reading a single application go through Hibernate on the blocking executor instead, since the second-level
+    // cache serves most of those without a database round trip
+
+    @GET
+    public Uni<List<Application>> list() {
+        return reactiveApplicationRepo.listWithArchives();
+    }
+
     @GET
-    public List<Application> list() {
-        return applicationRepo.listAll();
+    @Path("/status")
+    public Map<String, AppState> listStatus() {
+        return openshiftFacade.getStatuses(applicationRepo.listSummaries());
     }
 
     @GET
     @Path("/{name}")
-    public Application get(String name, @QueryParam("verbose") boolean verbose) {
-        return applicationRepo.getApplication(name, verbose);
+    public Uni<Application> get(String name, @QueryParam("verbose") boolean verbose) {
+        return blockingExecutor.run(() -> applicationRepo.getApplication(name, verbose));
     }
 
 
     @POST
     @ResponseStatus(201) // CREATED
     public Application create(Application application) {
+        if (application.name != null && RESERVED_NAMES.contains(application.name)) {
+            throw new ServerException(Response.Status.BAD_REQUEST, "'" + application.name + "' can't be used as an application name");
+        }
         try {
             return applicationRepo.create(application);
         } catch (RuntimeException e) {
@@ -73,16 +143,56 @@ public class ApplicationResource {
     @ResponseStatus(204) // NO_CONTENT
     @DELETE
     @Path("/{appName}")
-    public void delete(String appName, @QueryParam("force") Boolean force) {
-        boolean forceDelete = force == null ? false : force;
-        try {
-            applicationRepo.findByName(appName);
-            AppState state = openshiftFacade.getStatus(appName);
-            if (!forceDelete && (state.getDeploymentState() != AppState.DeploymentState.NOT_DEPLOYED || state.getBuildState() == AppState.BuildState.RUNNING)) {
-                throw new ServerException(Response.Status.CONFLICT, "Can't delete a running application, or one in the process of being built. Stop it first, or force delete. If the status shows it is being built and you want to keep the application running, cancel the deploy.");
+    public Uni<Void> delete(String appName, @QueryParam("force") Boolean force) {
+        return blockingExecutor.run(() -> {
+            boolean forceDelete = force == null ? false : force;
+            try {
+                applicationRepo.findByName(appName);
+                AppState state = openshiftFacade.getStatus(appName);
+                if (!forceDelete && (state.getDeploymentState() != AppState.DeploymentState.NOT_DEPLOYED || state.getBuildState() == AppState.BuildState.RUNNING)) {
+                    throw new ServerException(Response.Status.CONFLICT, "Can't delete a running application, or one in the process of being built. Stop it first, or force delete. If the status shows it is being built and you want to keep the application running, cancel the deploy.");
+                }
+                List<String> digests = applicationRepo.delete(appName);
+                openshiftFacade.delete(appName);
+                archiveStore.deleteApplicationDir(appName);
+                archiveStore.release(digests);
+            } catch (RuntimeException e) {
+                ExceptionUnwrapper
+                        .create(ServerException.class, () -> (ServerException) e)
+                        .throwServerException(e);
+            }
+        });
+    }
+
+    @ResponseStatus(204) // NO_CONTENT
+    @PUT
+    @Path("/{appName}/stop")
+    public Uni<Void> stop(String appName) {
+        return blockingExecutor.run(() -> {
+            AppState.BuildState buildState = null;
+            try {
+                applicationRepo.findByName(appName);
+                buildState = openshiftFacade.stop(appName);
+                DeploymentRecord.Status state = null;
+                if (buildState == AppState.BuildState.RUNNING || buildState == AppState.BuildState.NOT_RUNNING) {
+                    applicationRepo.recordDeploymentEnd(appName, DeploymentRecord.Status.CANCELLED);
+                    // Don't think we need to handle Completed/Failed since that should have been recorded elsewhere. Probably/possibly...
+                }
+
+            } catch (RuntimeException e) {
+                ExceptionUnwrapper
+                        .create(ServerException.class, () -> (ServerException) e)
+                        .throwServerException(e);
             }
-            applicationRepo.delete(appName);
-            openshiftFacade.delete(appName);
+        });
+    }
+
+    @ResponseStatus(204) // NO_CONTENT
+    @PUT
+    @Path("/{appName}/retention")
+    public void setRetention(String appName, @QueryParam("keep") Integer keep, @QueryParam("maxAgeDays") Integer maxAgeDays) {
+        try {
+            deploymentHistoryRepo.setRetention(appName, keep, maxAgeDays);
         } catch (RuntimeException e) {
             ExceptionUnwrapper
                     .create(ServerException.class, () -> (ServerException) e)
@@ -90,32 +200,95 @@ public class ApplicationResource {
         }
     }
 
-    @ResponseStatus(204) // NO_CONTENT
+    @GET
+    @Path("/{appName}/deployment-stats")
+    public List<DeploymentStats> getDeploymentStats(String appName) {
+        return deploymentHistoryRepo.getStats(appName);
+    }
+
+    @GET
+    @Path("/{appName}/archive")
+    public Uni<List<AppArchive>> listArchives(String appName) {
+        return blockingExecutor.run(() -> applicationRepo.listArchivesForApp(appName));
+    }
+
+    @ResponseStatus(201) // CREATED
+    @POST
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.TEXT_PLAIN)
+    @Path("/{appName}/archive")
+    public Uni<Void> addArchive(String appName, @MultipartForm DeploymentData data) {
+        return blockingExecutor.run(() -> {
+            try {
+                UploadedFileContext checker = new UploadedFileContext(appName, data);
+                try {
+                    checker.init();
+                    applicationRepo.createApplicationArchive(checker.application, checker.archiveName, checker.digest, checker.configFileInspection);
+                } catch (RuntimeException e) {
+                    checker.undo();
+                    throw e;
+                } finally {
+                    checker.unpin();
+                }
+            } catch (RuntimeException e) {
+                ExceptionUnwrapper
+                        .create(ServerException.class, () -> (ServerException) e)
+                        .throwServerException(e);
+            }
+        });
+    }
+
+    @ResponseStatus(202) // ACCEPTED
     @PUT
-    @Path("/{appName}/stop")
-    public void stop(String appName) {
-        AppState.BuildState buildState = null;
-        try {
-            applicationRepo.findByName(appName);
-            buildState = openshiftFacade.stop(appName);
-            DeploymentRecord.Status state = null;
-            if (buildState == AppState.BuildState.RUNNING || buildState == AppState.BuildState.NOT_RUNNING) {
-                applicationRepo.recordDeploymentEnd(appName, DeploymentRecord.Status.CANCELLED);
-                // Don't think we need to handle Completed/Failed since that should have been recorded elsewhere. Probably/possibly...
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.TEXT_PLAIN)
+    @Path("/{appName}/archive/{archiveName}")
+    public Uni<Void> replaceArchive(String appName, String archiveName, @MultipartForm DeploymentData data) {
+        return blockingExecutor.run(() -> {
+            try {
+                UploadedFileContext checker = new UploadedFileContext(appName, archiveName, data);
+                String previousDigest;
+                try {
+                    checker.init();
+                    if (checker.unchanged) {
+                        // Same contents as before, so there is nothing to do
+                        return;
+                    }
+                    previousDigest = applicationRepo.updateApplicationArchive(checker.application, checker.archiveName, checker.digest, checker.configFileInspection);
+                } catch (RuntimeException e) {
+                    checker.undo();
+                    throw e;
+                } finally {
+                    checker.unpin();
+                }
+                archiveStore.release(Collections.singleton(previousDigest));
+            } catch (RuntimeException e) {
+                ExceptionUnwrapper
+                        .create(ServerException.class, () -> (ServerException) e)
+                        .throwServerException(e);
             }
+        });
+    }
 
+    @POST
+    @Path("/{appName}/archive/upload")
+    public ArchiveUpload startArchiveUpload(String appName, ArchiveUpload upload) {
+        try {
+            applicationRepo.findByName(appName);
+            return archiveUploads.start(appName, upload);
         } catch (RuntimeException e) {
             ExceptionUnwrapper
                     .create(ServerException.class, () -> (ServerException) e)
                     .throwServerException(e);
+            return null;
         }
     }
 
     @GET
-    @Path("/{appName}/archive")
-    public List<AppArchive> listArchives(String appName) {
+    @Path("/{appName}/archive/upload/{uploadId}")
+    public ArchiveUpload getArchiveUpload(String appName, String uploadId) {
         try {
-            return applicationRepo.listArchivesForApp(appName);
+            return archiveUploads.getStatus(appName, uploadId);
         } catch (RuntimeException e) {
             ExceptionUnwrapper
                     .create(ServerException.class, () -> (ServerException) e)
@@ -124,17 +297,13 @@ public class ApplicationResource {
         }
     }
 
-    @ResponseStatus(201) // CREATED
-    @POST
-    @Consumes(MediaType.MULTIPART_FORM_DATA)
-    @Produces(MediaType.TEXT_PLAIN)
-    @Path("/{appName}/archive")
-    public void addArchive(String appName, @MultipartForm DeploymentData data) {
+    @ResponseStatus(204) // NO_CONTENT
+    @PUT
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/{appName}/archive/upload/{uploadId}")
+    public void uploadArchiveChunk(String appName, String uploadId, @QueryParam("offset") long offset, InputStream chunk) {
         try {
-            System.out.println("--- Add");
-            UploadedFileContext checker = new UploadedFileContext(appName, data);
-            checker.init();
-            applicationRepo.createApplicationArchive(checker.application, checker.archiveName, checker.configFileInspection);
+            archiveUploads.writeChunk(appName, uploadId, offset, chunk);
         } catch (RuntimeException e) {
             ExceptionUnwrapper
                     .create(ServerException.class, () -> (ServerException) e)
@@ -142,17 +311,52 @@ public class ApplicationResource {
         }
     }
 
-    @ResponseStatus(202) // ACCEPTED
-    @PUT
-    @Consumes(MediaType.MULTIPART_FORM_DATA)
-    @Produces(MediaType.TEXT_PLAIN)
-    @Path("/{appName}/archive/{archiveName}")
-    public void replaceArchive(String appName, String archiveName, @MultipartForm DeploymentData data) {
+    @ResponseStatus(201) // CREATED
+    @POST
+    @Path("/{appName}/archive/upload/{uploadId}/complete")
+    public Uni<Void> completeArchiveUpload(String appName, String uploadId) {
+        return blockingExecutor.run(() -> {
+            try {
+                ArchiveUploads.CompletedUpload upload = archiveUploads.complete(appName, uploadId);
+                UploadedFileContext checker = new UploadedFileContext(
+                        appName, upload.isReplace() ? upload.getFileName() : null, upload.getFileName(), upload.getFile(), upload.getDigest());
+                String previousDigest = null;
+                try {
+                    try {
+                        checker.init();
+                    } finally {
+                        Files.deleteIfExists(upload.getFile());
+                    }
+                    if (!upload.isReplace()) {
+                        applicationRepo.createApplicationArchive(checker.application, checker.archiveName, checker.digest, checker.configFileInspection);
+                    } else if (!checker.unchanged) {
+                        previousDigest = applicationRepo.updateApplicationArchive(checker.application, checker.archiveName, checker.digest, checker.configFileInspection);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    checker.undo();
+                    throw e;
+                } finally {
+                    checker.unpin();
+                }
+                if (previousDigest != null) {
+                    archiveStore.release(Collections.singleton(previousDigest));
+                }
+            } catch (IOException e) {
+                throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, e.getMessage(), e);
+            } catch (RuntimeException e) {
+                ExceptionUnwrapper
+                        .create(ServerException.class, () -> (ServerException) e)
+                        .throwServerException(e);
+            }
+        });
+    }
+
+    @ResponseStatus(204) // NO_CONTENT
+    @DELETE
+    @Path("/{appName}/archive/upload/{uploadId}")
+    public void abortArchiveUpload(String appName, String uploadId) {
         try {
-            System.out.println("--- Replace");
-            UploadedFileContext checker = new UploadedFileContext(appName, archiveName, data);
-            checker.init();
-            applicationRepo.updateApplicationArchive(checker.application, checker.archiveName, checker.configFileInspection);
+            archiveUploads.abort(appName, uploadId);
         } catch (RuntimeException e) {
             ExceptionUnwrapper
                     .create(ServerException.class, () -> (ServerException) e)
@@ -163,15 +367,22 @@ public class ApplicationResource {
     @ResponseStatus(204) // NO_CONTENT
     @DELETE
     @Path("/{appName}/archive/{archiveName}")
-    public void deleteArchive(String appName, String archiveName) {
-        Application application = applicationRepo.findByName(appName);
-        applicationRepo.deleteApplicationArchive(application, archiveName);
+    public Uni<Void> deleteArchive(String appName, String archiveName) {
+        return blockingExecutor.run(() -> {
+            Application application = applicationRepo.findByName(appName);
+            String digest = applicationRepo.deleteApplicationArchive(application, archiveName);
+            try {
+                Files.deleteIfExists(uiPaths.getApplicationDir(appName).resolve(archiveName));
+            } catch (IOException e) {
+                throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Error deleting " + archiveName + " on the server", e);
+            }
+            archiveStore.release(Collections.singleton(digest));
+        });
     }
 
     @GET
     @Path("/{appName}/config-file")
     public String getConfigFileContents(String appName, @QueryParam("type") String type) {
-        System.out.println("---> get config");
         try {
             return applicationRepo.getConfigFileContents(appName, type);
         } catch (RuntimeException e) {
@@ -188,7 +399,6 @@ public class ApplicationResource {
     @Produces(MediaType.TEXT_PLAIN)
     @Path("/{appName}/config-file")
     public void setConfigFileContents(String appName, @QueryParam("type") String type, @MultipartForm DeploymentData dto) {
-        System.out.println("---> replace config");
         try {
             String contents = null;
             try {
@@ -196,7 +406,6 @@ public class ApplicationResource {
             } catch (IOException e) {
                 throw new IllegalStateException(e);
             }
-            System.out.println("---> " + contents);
             applicationRepo.setConfigFileContents(appName, type, contents);
         } catch (RuntimeException e) {
             ExceptionUnwrapper
@@ -221,58 +430,102 @@ public class ApplicationResource {
     @ResponseStatus(202) // ACCEPTED
     @POST
     @Path("/{appName}/deploy")
-     public void deploy(String appName, @QueryParam("force") Boolean force, @QueryParam("refresh") Boolean refresh, @QueryParam("cancel") Boolean cancel) {
-        try {
-            boolean forceBuild = force == null ? false : force;
-            boolean refreshBuild = refresh == null ? false : refresh;
-            boolean cancelBuild = cancel == null ? false : cancel;
-            // Check application exists
-            System.out.println("----> Looking for app " + appName);
-            if (!cancelBuild) {
-                try {
-                    System.out.println("----> Calling deploy " + appName);
-                    openshiftFacade.deploy(appName, forceBuild, refreshBuild);
-                } catch (RuntimeException e) {
-                    throw e;
+    public Uni<DeployJob> deploy(String appName, @QueryParam("force") Boolean force, @QueryParam("refresh") Boolean refresh, @QueryParam("cancel") Boolean cancel) {
+        return blockingExecutor.run(() -> {
+            try {
+                boolean forceBuild = force == null ? false : force;
+                boolean refreshBuild = refresh == null ? false : refresh;
+                boolean cancelBuild = cancel == null ? false : cancel;
+                // Check application exists
+                if (!cancelBuild) {
+                    log.debugf("Queuing deploy of %s", appName);
+                    return deployJobQueue.submit(appName, forceBuild, refreshBuild);
+                } else {
+                    deployJobQueue.cancelQueued(appName);
+                    openshiftFacade.cancelBuild(appName);
+                    return null;
                 }
-            } else {
-                openshiftFacade.cancelBuild(appName);
+            } catch (RuntimeException e) {
+                ExceptionUnwrapper
+                        .create(ServerException.class, () -> (ServerException) e)
+                        .throwServerException(e);
+                throw e;
             }
-        } catch (RuntimeException e) {
-            ExceptionUnwrapper
-                    .create(ServerException.class, () -> (ServerException) e)
-                    .throwServerException(e);
+        });
+    }
+
+    @POST
+    @Path("/deploy")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<BulkDeployEvent> deployAll(BulkDeploy request) {
+        return blockingExecutor.run(() -> {
+            try {
+                List<String> appNames = selectBulkDeployApps(request);
+                log.debugf("Queuing deploy of %s", appNames);
+                return deployJobQueue.submitAll(appNames, request.force, request.refresh);
+            } catch (RuntimeException e) {
+                ExceptionUnwrapper
+                        .create(ServerException.class, () -> (ServerException) e)
+                        .throwServerException(e);
+                throw e;
+            }
+        }).onItem().transformToMulti(events -> events);
+    }
+
+    private List<String> selectBulkDeployApps(BulkDeploy request) {
+        boolean hasApps = request.apps != null && !request.apps.isEmpty();
+        boolean hasSelector = request.selector != null && !request.selector.isBlank();
+        if ((hasApps ? 1 : 0) + (hasSelector ? 1 : 0) + (request.all ? 1 : 0) != 1) {
+            throw new ServerException(Response.Status.BAD_REQUEST, "Exactly one of the application names, a label selector or all applications must be given");
+        }
+        List<String> appNames;
+        if (hasApps) {
+            appNames = new ArrayList<>(new LinkedHashSet<>(request.apps));
+        } else if (hasSelector) {
+            appNames = new ArrayList<>(openshiftFacade.findApplicationsByLabels(request.selector));
+        } else {
+            appNames = new ArrayList<>();
+            for (ApplicationSummary summary : applicationRepo.listSummaries()) {
+                appNames.add(summary.getName());
+            }
+        }
+        if (appNames.isEmpty()) {
+            throw new ServerException(Response.Status.NOT_FOUND, "No applications matched");
         }
+        return appNames;
+    }
+
+    @GET
+    @Path("/{appName}/deploy/{jobId}")
+    public DeployJob getDeployJob(String appName, long jobId) {
+        return deployJobRepo.getJob(appName, jobId);
     }
 
     @GET
     @Path("/{appName}/status")
-    public AppState status(String appName) {
-        try {
-            // Check application exists
-            applicationRepo.findByName(appName);
-            return openshiftFacade.getStatus(appName);
-        } catch (RuntimeException e) {
-            ExceptionUnwrapper
-                    .create(ServerException.class, () -> (ServerException) e)
-                    .throwServerException(e);
-            return null;
-        }
+    public Uni<AppState> status(String appName) {
+        // Also checks the application exists
+        return reactiveApplicationRepo.getStageStatus(appName)
+                .flatMap(stageState -> openshiftFacade.getStatusAsync(appName, stageState));
+    }
+
+    @GET
+    @Path("/{appName}/status/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<AppState> statusStream(String appName) {
+        // Check application exists
+        return reactiveApplicationRepo.findIdByName(appName)
+                .onItem().transformToMulti(id -> appStatusWatcher.watch(appName));
     }
 
     @GET
     @Path("/{appName}/routes")
-    public List<String> routes(String appName) {
-        try {
-            // Check application exists
-            applicationRepo.findByName(appName);
-            return openshiftFacade.getRoutes(appName);
-        } catch (RuntimeException e) {
-            ExceptionUnwrapper
-                    .create(ServerException.class, () -> (ServerException) e)
-                    .throwServerException(e);
-            return null;
-        }
+    public Uni<List<String>> routes(String appName) {
+        // Check application exists
+        return reactiveApplicationRepo.findIdByName(appName)
+                .flatMap(id -> openshiftFacade.getRoutesAsync(appName));
     }
 
     @POST
@@ -298,8 +551,8 @@ public class ApplicationResource {
 
     @GET
     @Path("/{appName}/db")
-    public List<DatabaseConnection> listDatabaseConnections(String appName) {
-        return applicationRepo.getDatabaseConnections(appName);
+    public Uni<List<DatabaseConnection>> listDatabaseConnections(String appName) {
+        return blockingExecutor.run(() -> applicationRepo.getDatabaseConnections(appName));
     }
 
 
@@ -316,45 +569,133 @@ public class ApplicationResource {
     private class UploadedFileContext {
         private final String appName;
         private String archiveName;
-        private final DeploymentData data;
+        private final String fileName;
+        private final java.nio.file.Path uploadedFile;
         private Application application;
         private java.nio.file.Path dest;
+        private String digest;
+        private boolean unchanged;
+        private boolean pinned;
         private ConfigFileInspection configFileInspection;
+        // What was linked at dest before, to put back if recording the archive fails
+        private boolean linked;
+        private String previousDigest;
+        private java.nio.file.Path previousBackup;
 
         UploadedFileContext(String appName, @MultipartForm DeploymentData data) {
             this(appName, null, data);
         }
 
         UploadedFileContext(String appName, String archiveName, @MultipartForm DeploymentData data) {
+            this(appName, archiveName, data.file.fileName(), data.file.uploadedFile(), null);
+        }
+
+        UploadedFileContext(String appName, String archiveName, String fileName, java.nio.file.Path uploadedFile, String digest) {
             this.appName = appName;
             this.archiveName = archiveName;
-            this.data = data;
+            this.fileName = fileName;
+            this.uploadedFile = uploadedFile;
+            this.digest = digest;
         }
 
         private void init() {
             application = applicationRepo.findByName(appName);
 
-            java.nio.file.Path path = data.file.uploadedFile();
+            java.nio.file.Path path = uploadedFile;
 
-            if (!data.file.fileName().endsWith(".war")) {
+            if (!fileName.endsWith(".war")) {
                 throw new ServerException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Only .war archives can be uploaded.");
             }
 
-            String fileName = data.file.fileName();
             if (archiveName != null && !archiveName.equals(fileName)) {
                 throw new ServerException(Response.Status.CONFLICT, "Bad request, the archive name should match the actual file name.");
             }
+            boolean replace = archiveName != null;
             archiveName = fileName;
             dest = uiPaths.getApplicationDir(appName).resolve(fileName);
-            try {
-                if (Files.exists(dest)) {
-                    // TODO: This will do for now to avoid the FileAlreadyExistsException. Will probably need some delete/update commands
-                    Files.delete(dest);
+
+            AppArchive existing = applicationRepo.findArchive(appName, fileName);
+            if (!replace && existing != null) {
+                throw new ServerException(Response.Status.CONFLICT,
+                        "There is already an archive called '" + fileName + " associated with '" + appName + "'");
+            }
+            if (digest == null) {
+                digest = ArchiveStore.digest(path);
+            }
+            if (existing != null && digest.equals(existing.digest) && Files.exists(dest)) {
+                unchanged = true;
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ignore) {
                 }
-                Files.move(data.file.uploadedFile(), dest);
-                configFileInspection = ConfigFileInspection.inspect(dest);
+                return;
+            }
+
+            try {
+                configFileInspection = ConfigFileInspection.inspect(path);
             } catch (IOException e) {
-                throw new RuntimeException("An error happened copying the files on the server");
+                throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "An error happened inspecting the archive on the server", e);
+            }
+            // Fail before touching the application directory if the archive would be rejected
+            applicationRepo.checkCanStoreArchive(application, fileName, configFileInspection);
+
+            linked = true;
+            if (existing != null && Files.exists(dest)) {
+                previousDigest = existing.digest;
+                if (previousDigest == null) {
+                    // Uploaded before the archive store existed, so it can't be linked again from there
+                    previousBackup = uiPaths.getUploadsDir().resolve(UUID.randomUUID() + ".previous");
+                    try {
+                        Files.move(dest, previousBackup);
+                    } catch (IOException e) {
+                        throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "An error happened copying the files on the server", e);
+                    }
+                }
+            }
+            pinned = true;
+            archiveStore.storeAndLink(path, digest, dest);
+            configFileCache.extract(dest, digest, configFileInspection);
+        }
+
+        /**
+         * Puts back what was in the application directory before the upload, and releases the blob of the uploaded
+         * archive. Call when recording the archive has failed
+         */
+        private void undo() {
+            if (!linked) {
+                return;
+            }
+            linked = false;
+            try {
+                if (previousBackup != null) {
+                    Files.move(previousBackup, dest, StandardCopyOption.REPLACE_EXISTING);
+                    previousBackup = null;
+                } else if (previousDigest == null || !archiveStore.relink(previousDigest, dest)) {
+                    Files.deleteIfExists(dest);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warnf("Could not put back %s of %s after a failed upload. Message: %s", archiveName, appName, e.getMessage());
+            }
+            unpin();
+            archiveStore.release(Collections.singleton(digest));
+        }
+
+        /**
+         * Lets the archive store release the blob of the uploaded archive again, and deletes the backup of the archive
+         * it replaced. Call once the archive has been committed, or has failed
+         */
+        private void unpin() {
+            if (previousBackup != null) {
+                try {
+                    Files.deleteIfExists(previousBackup);
+                } catch (IOException e) {
+                    log.warnf("Could not delete %s. Message: %s", previousBackup, e.getMessage());
+                }
+                previousBackup = null;
+            }
+            if (pinned) {
+                pinned = false;
+                archiveStore.unpin(digest);
             }
         }
     }
@@ -0,0 +1,152 @@
+package org.wildfly.managed;
+
+import io.opentelemetry.context.Context;
+import io.quarkus.runtime.ShutdownEvent;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ThreadContext;
+import org.jboss.logging.Logger;
+import org.jboss.logging.MDC;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs blocking work, such as waiting for scripts, moving files and calling the OpenShift API, off the event loop.
+ * By default this uses the worker pool. If managed.server.virtual-threads.enabled is set, and the JVM supports them,
+ * each task gets its own virtual thread instead, so that tasks which spend their time waiting don't each hold on to
+ * a platform thread.
+ * <p/>
+ * The project is built for Java 11, so the virtual thread API is looked up reflectively.
+ */
+@ApplicationScoped
+public class BlockingExecutor {
+    private static final Logger log = Logger.getLogger(BlockingExecutor.class);
+
+    @ConfigProperty(name = "managed.server.virtual-threads.enabled", defaultValue = "false")
+    boolean virtualThreadsEnabled;
+
+    @Inject
+    ThreadContext threadContext;
+
+    // Only set when using virtual threads
+    private ExecutorService virtualThreadExecutor;
+
+    @PostConstruct
+    void init() {
+        if (!virtualThreadsEnabled) {
+            return;
+        }
+        ThreadFactory factory = createVirtualThreadFactory("blocking-");
+        if (factory != null) {
+            virtualThreadExecutor = newThreadPerTaskExecutor(factory);
+        }
+        if (virtualThreadExecutor == null) {
+            log.warnf("Virtual threads were enabled, but are not supported by this JVM (%s). Using the worker pool.", Runtime.version());
+        } else {
+            log.info("Running blocking work on virtual threads");
+        }
+    }
+
+    void stop(@Observes ShutdownEvent event) {
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdownNow();
+        }
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return virtualThreadExecutor != null;
+    }
+
+    /**
+     * Runs some blocking work. The request context, the trace context and the logging context of the caller are
+     * available to the work.
+     *
+     * @param supplier the work
+     * @return a Uni completing with the result of the work
+     */
+    public <T> Uni<T> run(Supplier<T> supplier) {
+        Supplier<T> contextual = withLoggingContext(Context.current().wrapSupplier(threadContext.contextualSupplier(supplier)));
+        return Uni.createFrom().item(contextual).runSubscriptionOn(getExecutor());
+    }
+
+    public Uni<Void> run(Runnable runnable) {
+        return run(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Gets a thread factory for a pool which runs blocking work. With virtual threads enabled, the threads are
+     * virtual. Otherwise, they are daemon platform threads.
+     *
+     * @param prefix the prefix for the thread names
+     * @return the thread factory
+     */
+    public ThreadFactory newThreadFactory(String prefix) {
+        if (isUsingVirtualThreads()) {
+            ThreadFactory factory = createVirtualThreadFactory(prefix);
+            if (factory != null) {
+                return factory;
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private Executor getExecutor() {
+        return virtualThreadExecutor != null ? virtualThreadExecutor : Infrastructure.getDefaultWorkerPool();
+    }
+
+    private static <T> Supplier<T> withLoggingContext(Supplier<T> supplier) {
+        Map<String, Object> mdc = MDC.getMap();
+        return () -> {
+            mdc.forEach(MDC::put);
+            try {
+                return supplier.get();
+            } finally {
+                mdc.keySet().forEach(MDC::remove);
+            }
+        };
+    }
+
+    private static ThreadFactory createVirtualThreadFactory(String prefix) {
+        try {
+            // Thread.ofVirtual().name(prefix, 1).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (InvocationTargetException e) {
+            // e.g. the API is a preview feature which was not enabled
+            log.debugf("Could not create a virtual thread factory: %s", e.getCause());
+            return null;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newThreadPerTaskExecutor(ThreadFactory factory) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package org.wildfly.managed;
 
+import org.jboss.logging.Logger;
 import org.wildfly.managed.common.model.DatabaseConnection;
 import org.wildfly.managed.parser.FormattingXMLStreamWriter;
 import org.wildfly.managed.parser.serverconfig.ServerConfig;
 import org.wildfly.managed.parser.serverconfig.ServerConfigParser;
-import org.wildfly.managed.repo.ApplicationRepo;
 
 import javax.ws.rs.core.Response;
 import javax.xml.stream.XMLOutputFactory;
@@ -22,12 +22,12 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 public class ConfigAdjuster {
+    private static final Logger log = Logger.getLogger(ConfigAdjuster.class);
+
     List<String> commands = new ArrayList<>();
     Set<String> layers = new HashSet<>();
 
-    public ConfigAdjuster adjustConfig(ApplicationRepo applicationRepo, String appName) {
-        List<DatabaseConnection> connections = applicationRepo.getDatabaseConnections(appName);
-
+    public ConfigAdjuster adjustConfig(List<DatabaseConnection> connections) {
         // grab the layers
         Set<String> databaseLayers = connections.stream().map(c -> c.type.layer).collect(Collectors.toSet());
         layers.addAll(databaseLayers);
@@ -85,7 +85,7 @@ public class ConfigAdjuster {
                 writer.close();
             }
         } catch (IOException | XMLStreamException e) {
-            e.printStackTrace();
+            log.errorf(e, "Error updating %s", serverConfigXml);
             throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, e.getMessage());
         }
     }
@@ -96,7 +96,7 @@ public class ConfigAdjuster {
             return;
         }
         try {
-            System.out.println(serverInitCli.toAbsolutePath());
+            log.debugf("Updating %s", serverInitCli);
             Path backup = null;
             List<String> userCommands = new ArrayList<>();
             if (Files.exists(serverInitCli)) {
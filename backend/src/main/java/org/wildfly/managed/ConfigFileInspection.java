@@ -1,11 +1,14 @@
 package org.wildfly.managed;
 
+import org.jboss.logging.Logger;
+
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.jar.JarFile;
+import java.util.zip.ZipFile;
 
 public class ConfigFileInspection {
+    private static final Logger log = Logger.getLogger(ConfigFileInspection.class);
+
     public static final String ROOT_LOCATION = "WEB-INF/classes/META-INF/";
     public static final String SERVER_CONFIG_XML = ROOT_LOCATION + "server-config.xml";
     public static final String SERVER_INIT_CLI = ROOT_LOCATION + "server-init.cli";
@@ -40,30 +43,23 @@ public class ConfigFileInspection {
         return serverConfigXml || serverInitCli || serverInitYml;
     }
 
+    /**
+     * Inspects an archive for config files. The known locations are looked up in the zip central directory rather
+     * than going through all the entries.
+     *
+     * @param archiveFile the archive
+     * @return the result of the inspection
+     * @throws IOException if the archive could not be read
+     */
     static ConfigFileInspection inspect(Path archiveFile) throws IOException {
-        AtomicBoolean serverConfigXml = new AtomicBoolean(false);
-        AtomicBoolean serverInitCli = new AtomicBoolean(false);
-        AtomicBoolean serverInitYml = new AtomicBoolean(false);
-
-        JarFile jar = new JarFile(archiveFile.toFile());
-        System.out.println("=== Inspecting");
-        jar.stream().forEach(je -> {
-            switch (je.getName()) {
-                case SERVER_CONFIG_XML:
-                    serverConfigXml.set(true);
-                    break;
-                case SERVER_INIT_CLI:
-                    serverInitCli.set(true);
-                    break;
-                case SERVER_INIT_YML:
-                    serverInitYml.set(true);
-                    break;
-            }
-            System.out.println(je.getName());
-        });
-
-        System.out.printf("=== Inspecting %s, %s, %s", serverConfigXml.get(), serverInitCli.get(), serverInitYml.get());
-
-        return new ConfigFileInspection(serverConfigXml.get(), serverInitCli.get(), serverInitYml.get());
+        try (ZipFile zipFile = new ZipFile(archiveFile.toFile())) {
+            ConfigFileInspection inspection = new ConfigFileInspection(
+                    zipFile.getEntry(SERVER_CONFIG_XML) != null,
+                    zipFile.getEntry(SERVER_INIT_CLI) != null,
+                    zipFile.getEntry(SERVER_INIT_YML) != null);
+            log.debugf("Inspected %s: server-config.xml=%s, server-init.cli=%s, server-init.yml=%s",
+                    archiveFile.getFileName(), inspection.serverConfigXml, inspection.serverInitCli, inspection.serverInitYml);
+            return inspection;
+        }
     }
 }
@@ -1,6 +1,7 @@
 package org.wildfly.managed;
 
 import io.smallrye.mutiny.Uni;
+import org.jboss.logging.Logger;
 import org.wildfly.managed.config.UiPaths;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -19,6 +20,7 @@ import java.util.stream.Collectors;
 @ApplicationScoped
 @Path("/cli")
 public class DownloadCliResource {
+    private static final Logger log = Logger.getLogger(DownloadCliResource.class);
 
     private static final Pattern MANAGED_SERVER_CLI_JAR_MATCHER = Pattern.compile("managed-server-cli.*\\.jar");
     private static final Pattern MANAGED_SERVER_CLI_JAR = Pattern.compile("managed-server-cli.jar");
@@ -40,11 +42,10 @@ public class DownloadCliResource {
 
     private java.nio.file.Path getManagedServerJar() {
         if (managedServer != null) {
-            System.out.println("Using existing!");
             return managedServer;
         }
         // A bit convoluted to be able to work locally
-        System.out.println("Searching....");
+        log.debug("Searching for the CLI jar");
         java.nio.file.Path dir = uiPaths.getDownloadsDir().toAbsolutePath();
         if (!Files.exists(dir) && !Files.isDirectory(dir)) {
             throw new IllegalStateException(dir + " does not exist");
@@ -57,7 +58,7 @@ public class DownloadCliResource {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        System.out.println("Matching paths");
+        log.debugf("Found CLI jars %s", paths);
         if (paths.size() == 0) {
             throw new IllegalStateException("No cli file was found on the server for download");
         }
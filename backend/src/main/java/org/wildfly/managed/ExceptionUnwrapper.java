@@ -26,7 +26,6 @@ public class ExceptionUnwrapper<T extends Throwable> {
         Throwable cause = t;
         while (cause != null) {
             for (Map.Entry<Class<T>, Supplier<ServerException>> entry : throwers.entrySet()) {
-                System.out.println("--->" + entry.getKey());
                 if (cause.getClass().isAssignableFrom(entry.getKey())) {
                     throw entry.getValue().get();
                 }
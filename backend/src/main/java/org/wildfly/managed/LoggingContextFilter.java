@@ -0,0 +1,35 @@
+package org.wildfly.managed;
+
+import org.jboss.logging.MDC;
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+import org.jboss.resteasy.reactive.server.ServerResponseFilter;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * Adds the name of the application a request is for to the logging context, so it is included in all log messages
+ * for the request.
+ */
+public class LoggingContextFilter {
+    public static final String APP = "app";
+    public static final String DEPLOY_JOB = "deployJob";
+
+    @ServerRequestFilter
+    public void addLoggingContext(ContainerRequestContext requestContext) {
+        MultivaluedMap<String, String> pathParameters = requestContext.getUriInfo().getPathParameters();
+        String appName = pathParameters.getFirst("appName");
+        if (appName == null) {
+            appName = pathParameters.getFirst("name");
+        }
+        if (appName != null) {
+            MDC.put(APP, appName);
+        }
+    }
+
+    @ServerResponseFilter
+    public void removeLoggingContext(ContainerResponseContext responseContext) {
+        MDC.remove(APP);
+    }
+}
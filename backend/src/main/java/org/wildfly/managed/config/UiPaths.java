@@ -1,6 +1,8 @@
 package org.wildfly.managed.config;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.wildfly.managed.common.util.Digests;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
@@ -13,6 +15,7 @@ import java.util.Optional;
 
 @ApplicationScoped
 public class UiPaths {
+    private static final Logger log = Logger.getLogger(UiPaths.class);
 
     @ConfigProperty(name = "managed.server.ui.backend.workdir")
     String workingDirName;
@@ -28,9 +31,13 @@ public class UiPaths {
     String tempHelmChartLocationName;
 
     private Path workingDir;
+    private Path archiveStoreDir;
+    private Path uploadsDir;
+    private Path configCacheDir;
     private Path scriptsDir;
     private Path downloadsDir;
     private Path tempHelmChartLocation;
+    private String tempHelmChartDigest;
 
     @PostConstruct
     public void init() throws Exception {
@@ -39,6 +46,21 @@ public class UiPaths {
             Files.createDirectories(workingDir);
         }
 
+        archiveStoreDir = workingDir.resolve(".archive-store");
+        if (!Files.exists(archiveStoreDir)) {
+            Files.createDirectories(archiveStoreDir);
+        }
+
+        uploadsDir = workingDir.resolve(".uploads");
+        if (!Files.exists(uploadsDir)) {
+            Files.createDirectories(uploadsDir);
+        }
+
+        configCacheDir = workingDir.resolve(".config-cache");
+        if (!Files.exists(configCacheDir)) {
+            Files.createDirectories(configCacheDir);
+        }
+
         scriptsDir = Paths.get(scriptsDirName).toAbsolutePath();
         if (!Files.exists(scriptsDir)) {
             throw new IllegalStateException("Scripts dir does not exist: " + scriptsDir);
@@ -48,14 +70,15 @@ public class UiPaths {
         if (!Files.exists(tempHelmChartLocation)) {
             throw new IllegalStateException("Helm chart does not exist: " + tempHelmChartLocation);
         }
+        tempHelmChartDigest = Digests.sha256(tempHelmChartLocation);
 
         downloadsDir = Paths.get(downloadsDirName);
         if (!Files.exists(downloadsDir)) {
             throw new IllegalStateException("Directory " + downloadsDirName + " does not exist");
         }
 
-        System.out.println("-> workingDir " + workingDir);
-        System.out.println("-> scriptsDir " + scriptsDir);
+        log.infof("Working directory: %s", workingDir);
+        log.infof("Scripts directory: %s", scriptsDir);
     }
 
     public Path getWorkingDir() {
@@ -74,6 +97,18 @@ public class UiPaths {
         }
     }
 
+    public Path getArchiveStoreDir() {
+        return archiveStoreDir;
+    }
+
+    public Path getUploadsDir() {
+        return uploadsDir;
+    }
+
+    public Path getConfigCacheDir() {
+        return configCacheDir;
+    }
+
     public Path getDownloadsDir() {
         return downloadsDir;
     }
@@ -85,4 +120,8 @@ public class UiPaths {
     public Path getTempHelmChart() {
         return tempHelmChartLocation;
     }
+
+    public String getTempHelmChartDigest() {
+        return tempHelmChartDigest;
+    }
 }
@@ -0,0 +1,156 @@
+package org.wildfly.managed.deploy;
+
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.wildfly.managed.common.model.DeploymentRecord;
+import org.wildfly.managed.repo.ApplicationRepo;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.interceptor.Interceptor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many applications can be building at the same time in the OpenShift project, so that deploying a lot
+ * of applications at once does not swamp the cluster with builds. A slot is taken before the deploy changes anything
+ * in OpenShift, and given back once the deployment which triggered the build has been recorded as ended, i.e. once
+ * the build has completed, failed or been cancelled. If the deploy fails before triggering a build, it gives the
+ * slot back itself.
+ * <p/>
+ * Nothing waits for a slot. A deploy which can't get one fails with a {@link BuildSlotUnavailableException}, and the
+ * {@link DeployJobQueue} puts the job back to be retried once a slot is given back.
+ * <p/>
+ * All applications live in the one project, so this is the per-namespace limit.
+ */
+@ApplicationScoped
+public class BuildLimiter {
+    private static final Logger log = Logger.getLogger(BuildLimiter.class);
+
+    // 0 means no limit
+    @ConfigProperty(name = "managed.server.deploy.max-concurrent-builds", defaultValue = "0")
+    int maxConcurrentBuilds;
+
+    @Inject
+    ApplicationRepo applicationRepo;
+
+    // A lock rather than synchronized, so that virtual threads don't pin their carrier thread while waiting for it
+    private final Lock lock = new ReentrantLock();
+    // The number of slots held by each application which is building. Each application only counts once against the
+    // limit, but can hold several slots, e.g. when it is redeployed while building. Guarded by lock
+    private final Map<String, Integer> building = new HashMap<>();
+    // Called the next time a slot is given back. Guarded by lock
+    private final List<Runnable> waiters = new ArrayList<>();
+
+    /**
+     * Takes back the slots of the builds which were running when the server stopped. This happens after the
+     * database migrations, and before the deploy queue starts running jobs.
+     */
+    void start(@Observes @Priority(Interceptor.Priority.LIBRARY_BEFORE + 100) StartupEvent event) {
+        if (maxConcurrentBuilds <= 0) {
+            return;
+        }
+        List<DeploymentRecord> records = applicationRepo.getAllRunningDeployments();
+        lock.lock();
+        try {
+            for (DeploymentRecord record : records) {
+                if (record.buildTriggered) {
+                    building.put(record.application.name, 1);
+                }
+            }
+            if (!building.isEmpty()) {
+                log.infof("%d applications were building on startup", building.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a build slot for an application if one is free. If the application already has one, e.g. since it is
+     * being redeployed while building, it gets another without counting against the limit again. Each slot taken
+     * must be given back with {@link #release(String)}.
+     *
+     * @param appName the application name
+     * @return whether the slot was taken
+     */
+    public boolean tryAcquire(String appName) {
+        if (maxConcurrentBuilds <= 0) {
+            return true;
+        }
+        lock.lock();
+        try {
+            if (!building.containsKey(appName) && building.size() >= maxConcurrentBuilds) {
+                return false;
+            }
+            building.merge(appName, 1, Integer::sum);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a build slot of an application, if it has one
+     *
+     * @param appName the application name
+     */
+    public void release(String appName) {
+        if (maxConcurrentBuilds <= 0) {
+            return;
+        }
+        List<Runnable> wake;
+        lock.lock();
+        try {
+            Integer count = building.get(appName);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                building.put(appName, count - 1);
+                return;
+            }
+            building.remove(appName);
+            wake = new ArrayList<>(waiters);
+            waiters.clear();
+        } finally {
+            lock.unlock();
+        }
+        // All the waiters try again, and those which miss out wait for the next slot
+        wake.forEach(this::runWaiter);
+    }
+
+    /**
+     * Calls a callback once there may be a free slot. This is straight away if there is one now. The callback is
+     * called on the thread giving back the slot, so it should hand off any real work.
+     *
+     * @param callback the callback
+     */
+    public void whenAvailable(Runnable callback) {
+        lock.lock();
+        try {
+            if (maxConcurrentBuilds > 0 && building.size() >= maxConcurrentBuilds) {
+                waiters.add(callback);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        runWaiter(callback);
+    }
+
+    private void runWaiter(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            log.warnf(e, "Error waking a deploy waiting for a build slot");
+        }
+    }
+}
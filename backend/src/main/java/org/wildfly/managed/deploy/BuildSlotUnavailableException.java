@@ -0,0 +1,15 @@
+package org.wildfly.managed.deploy;
+
+import org.wildfly.managed.ServerException;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * Thrown by a deploy which needs to trigger a build when the {@link BuildLimiter} has no free slots. The
+ * {@link DeployJobQueue} retries the deploy once a slot is given back.
+ */
+public class BuildSlotUnavailableException extends ServerException {
+    public BuildSlotUnavailableException() {
+        super(Response.Status.SERVICE_UNAVAILABLE, "All the build slots are in use");
+    }
+}
@@ -0,0 +1,374 @@
+package org.wildfly.managed.deploy;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.operators.multi.processors.UnicastProcessor;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.jboss.logging.MDC;
+import org.reactivestreams.Processor;
+import org.wildfly.managed.BlockingExecutor;
+import org.wildfly.managed.LoggingContextFilter;
+import org.wildfly.managed.ServerException;
+import org.wildfly.managed.common.model.DeployJob;
+import org.wildfly.managed.common.value.BulkDeployEvent;
+import org.wildfly.managed.openshift.DeployProgress;
+import org.wildfly.managed.openshift.OpenshiftFacade;
+import org.wildfly.managed.repo.DeployJobRepo;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs deploys in the background on a bounded pool of workers. Jobs for the same application run one at a time, in
+ * the order they were submitted, while jobs for different applications run in parallel. A job which can't get a
+ * build slot from the {@link BuildLimiter} goes back to being queued, and is retried once a slot is given back,
+ * rather than holding on to a worker meanwhile.
+ */
+@ApplicationScoped
+public class DeployJobQueue {
+    private static final Logger log = Logger.getLogger(DeployJobQueue.class);
+
+    @Inject
+    DeployJobRepo deployJobRepo;
+
+    @Inject
+    OpenshiftFacade openshiftFacade;
+
+    @Inject
+    DeployMetrics deployMetrics;
+
+    @Inject
+    Tracer tracer;
+
+    @Inject
+    BlockingExecutor blockingExecutor;
+
+    @Inject
+    BuildLimiter buildLimiter;
+
+    @ConfigProperty(name = "managed.server.deploy.workers", defaultValue = "4")
+    int workers;
+
+    @ConfigProperty(name = "managed.server.deploy.max-queued", defaultValue = "100")
+    int maxQueued;
+
+    private ThreadPoolExecutor executor;
+
+    // A lock rather than synchronized, so that virtual threads don't pin their carrier thread while waiting for it
+    private final Lock lock = new ReentrantLock();
+    // The queued jobs, per application. The head of each queue is the job which is running, or next to run.
+    // Guarded by lock
+    private final Map<String, Deque<PendingJob>> pending = new HashMap<>();
+    private int queued;
+    // Notified with the application name and the job each time a job changes
+    private final List<BiConsumer<String, DeployJob>> listeners = new CopyOnWriteArrayList<>();
+
+    void start(@Observes StartupEvent event) {
+        executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                blockingExecutor.newThreadFactory("deploy-worker-"));
+        executor.allowCoreThreadTimeOut(true);
+
+        for (DeployJob job : deployJobRepo.recoverJobs()) {
+            lock.lock();
+            try {
+                queued++;
+            } finally {
+                lock.unlock();
+            }
+            enqueue(job.application.name, new PendingJob(job.id, Context.root()));
+        }
+    }
+
+    void stop(@Observes ShutdownEvent event) {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queues a deploy of an application
+     *
+     * @param appName the application name
+     * @param force whether to cancel running builds, and to deploy even if nothing has changed
+     * @param refresh whether to refresh the archives of a running application
+     * @return the queued job
+     */
+    public DeployJob submit(String appName, boolean force, boolean refresh) {
+        reserve(1);
+        DeployJob job;
+        try {
+            job = deployJobRepo.create(appName, force, refresh);
+        } catch (RuntimeException e) {
+            unreserve(1);
+            throw e;
+        }
+        // Keep the trace context of the request, so the deploy shows up in the same trace
+        enqueue(appName, new PendingJob(job.id, Context.current()));
+        return job;
+    }
+
+    /**
+     * Queues deploys of several applications. They are run by the same workers as single deploys, so at most
+     * managed.server.deploy.workers of them run at once, and the builds they trigger are limited by the
+     * {@link BuildLimiter}.
+     *
+     * @param appNames the application names
+     * @param force whether to cancel running builds, and to deploy even if nothing has changed
+     * @param refresh whether to refresh the archives of running applications
+     * @return a stream of the changes to the jobs, starting with the queued jobs. It completes once all the jobs
+     * are done. Changes are buffered until there is a subscriber.
+     */
+    public Multi<BulkDeployEvent> submitAll(List<String> appNames, boolean force, boolean refresh) {
+        reserve(appNames.size());
+        List<DeployJob> jobs;
+        try {
+            jobs = deployJobRepo.createAll(appNames, force, refresh);
+        } catch (RuntimeException e) {
+            unreserve(appNames.size());
+            throw e;
+        }
+
+        BulkDeployListener listener = new BulkDeployListener(jobs);
+        listeners.add(listener);
+        for (int i = 0; i < jobs.size(); i++) {
+            listener.events.onNext(new BulkDeployEvent(appNames.get(i), jobs.get(i)));
+        }
+        Context context = Context.current();
+        for (int i = 0; i < jobs.size(); i++) {
+            enqueue(appNames.get(i), new PendingJob(jobs.get(i).id, context));
+        }
+        // If the client goes away the deploys carry on, we just stop reporting them
+        return Multi.createFrom().publisher(listener.events)
+                .onTermination().invoke(() -> listeners.remove(listener));
+    }
+
+    /**
+     * Cancels the deploys of an application which have not started yet
+     *
+     * @param appName the application name
+     */
+    public void cancelQueued(String appName) {
+        // The ids stay in the pending queue, but the jobs are skipped since they are no longer QUEUED
+        deployJobRepo.cancelQueued(appName);
+    }
+
+    private void reserve(int count) {
+        lock.lock();
+        try {
+            if (queued + count > maxQueued) {
+                throw new ServerException(Response.Status.SERVICE_UNAVAILABLE, "There are too many deploys queued. Try again later.");
+            }
+            queued += count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void unreserve(int count) {
+        lock.lock();
+        try {
+            queued -= count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(String appName, PendingJob job) {
+        boolean schedule;
+        lock.lock();
+        try {
+            Deque<PendingJob> jobs = pending.computeIfAbsent(appName, k -> new ArrayDeque<>());
+            jobs.add(job);
+            schedule = jobs.size() == 1;
+        } finally {
+            lock.unlock();
+        }
+        if (schedule) {
+            executor.execute(() -> runNext(appName));
+        }
+    }
+
+    private void runNext(String appName) {
+        PendingJob job;
+        lock.lock();
+        try {
+            job = pending.get(appName).peek();
+        } finally {
+            lock.unlock();
+        }
+        boolean waiting = false;
+        try {
+            waiting = run(appName, job);
+        } finally {
+            if (!waiting) {
+                next(appName);
+            }
+        }
+        if (waiting) {
+            // The job stays at the head of the queue, and the worker is free for other applications meanwhile
+            buildLimiter.whenAvailable(() -> executor.execute(() -> runNext(appName)));
+        }
+    }
+
+    /**
+     * Moves on to the next job of an application, once the job at the head of its queue is done
+     */
+    private void next(String appName) {
+        boolean more;
+        lock.lock();
+        try {
+            Deque<PendingJob> jobs = pending.get(appName);
+            jobs.poll();
+            queued--;
+            more = !jobs.isEmpty();
+            if (!more) {
+                pending.remove(appName);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (more) {
+            // Go to the back of the executor queue so one application's jobs do not hog a worker
+            executor.execute(() -> runNext(appName));
+        }
+    }
+
+    /**
+     * @return whether the job is waiting for a build slot, and so needs running again
+     */
+    private boolean run(String appName, PendingJob job) {
+        MDC.put(LoggingContextFilter.APP, appName);
+        MDC.put(LoggingContextFilter.DEPLOY_JOB, job.id);
+        Span span = tracer.spanBuilder("deploy-job")
+                .setParent(job.context)
+                .setAttribute("app", appName)
+                .setAttribute("deploy.job", job.id)
+                .startSpan();
+        deployMetrics.deployStarted();
+        try (Scope ignored = span.makeCurrent()) {
+            return runJob(appName, job.id);
+        } finally {
+            deployMetrics.deployEnded();
+            span.end();
+            MDC.remove(LoggingContextFilter.APP);
+            MDC.remove(LoggingContextFilter.DEPLOY_JOB);
+        }
+    }
+
+    private boolean runJob(String appName, long jobId) {
+        DeployJob job;
+        try {
+            job = deployJobRepo.markRunning(jobId);
+        } catch (RuntimeException e) {
+            log.errorf(e, "Could not start deploy job %d for %s", jobId, appName);
+            return false;
+        }
+        if (job == null) {
+            if (!listeners.isEmpty()) {
+                // Let anyone following the job know it was cancelled before it started
+                jobChanged(appName, deployJobRepo.findJob(jobId));
+            }
+            return false;
+        }
+        jobChanged(appName, job);
+        log.infof("Running deploy job %d for %s", jobId, appName);
+        try {
+            String buildName = openshiftFacade.deploy(appName, job.force, job.refresh, stage -> jobChanged(appName, deployJobRepo.startStage(jobId, stage)));
+            jobChanged(appName, deployJobRepo.finish(jobId, DeployJob.Status.COMPLETED, buildName, null));
+        } catch (BuildSlotUnavailableException e) {
+            log.infof("Deploy job %d for %s is waiting for a build slot", jobId, appName);
+            try {
+                jobChanged(appName, deployJobRepo.requeue(jobId, DeployProgress.WAIT_FOR_BUILD_SLOT));
+                return true;
+            } catch (RuntimeException e2) {
+                // It is failed on the next restart, like any other job which was running
+                log.errorf(e2, "Could not requeue deploy job %d", jobId);
+            }
+        } catch (RuntimeException e) {
+            if (e instanceof ServerException) {
+                log.infof("Deploy job %d for %s failed: %s", jobId, appName, e.getMessage());
+            } else {
+                log.errorf(e, "Deploy job %d for %s failed", jobId, appName);
+            }
+            Span.current().recordException(e);
+            Span.current().setStatus(StatusCode.ERROR);
+            try {
+                jobChanged(appName, deployJobRepo.finish(jobId, DeployJob.Status.FAILED, null, e.getMessage()));
+            } catch (RuntimeException e2) {
+                log.errorf(e2, "Could not record the failure of deploy job %d", jobId);
+            }
+        }
+        return false;
+    }
+
+    private void jobChanged(String appName, DeployJob job) {
+        if (job == null) {
+            return;
+        }
+        for (BiConsumer<String, DeployJob> listener : listeners) {
+            try {
+                listener.accept(appName, job);
+            } catch (RuntimeException e) {
+                log.warnf(e, "Error reporting the progress of deploy job %d", job.id);
+            }
+        }
+    }
+
+    private class BulkDeployListener implements BiConsumer<String, DeployJob> {
+        private final Processor<BulkDeployEvent, BulkDeployEvent> events = UnicastProcessor.<BulkDeployEvent>create().serialized();
+        // The ids of the jobs which are not done yet
+        private final Set<Long> remaining = ConcurrentHashMap.newKeySet();
+
+        BulkDeployListener(List<DeployJob> jobs) {
+            for (DeployJob job : jobs) {
+                remaining.add(job.id);
+            }
+        }
+
+        @Override
+        public void accept(String appName, DeployJob job) {
+            if (!remaining.contains(job.id)) {
+                return;
+            }
+            events.onNext(new BulkDeployEvent(appName, job));
+            if (job.isDone() && remaining.remove(job.id) && remaining.isEmpty()) {
+                listeners.remove(this);
+                events.onComplete();
+            }
+        }
+    }
+
+    private static class PendingJob {
+        private final long id;
+        // The trace context the job was submitted in
+        private final Context context;
+
+        PendingJob(long id, Context context) {
+            this.id = id;
+            this.context = context;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.wildfly.managed.deploy;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.wildfly.managed.common.model.DeploymentRecord;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Metrics for the deploy pipeline, exposed on /q/metrics. Stage timers publish histograms so that SLOs can be set
+ * per stage.
+ */
+@ApplicationScoped
+public class DeployMetrics {
+    public static final String STAGE_LOAD_APPLICATION = "load-application";
+    public static final String STAGE_HELM = "helm";
+    public static final String STAGE_CONFIG_EXTRACTION = "config-extraction";
+    public static final String STAGE_CONFIG_ADJUST = "config-adjust";
+    public static final String STAGE_PACKAGE = "package";
+    public static final String STAGE_UPLOAD = "upload";
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private DistributionSummary buildContextSize;
+
+    @PostConstruct
+    void init() {
+        Gauge.builder("managed.server.deploy.in.flight", inFlight, AtomicInteger::get)
+                .description("Number of deploys being run by the deploy workers")
+                .register(meterRegistry);
+        buildContextSize = DistributionSummary.builder("managed.server.deploy.build.context.size")
+                .description("Size of the build context uploaded to the binary build")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    public <T> T timeStage(String stage, Supplier<T> supplier) {
+        return getStageTimer(stage).record(supplier);
+    }
+
+    public void timeStage(String stage, Runnable runnable) {
+        getStageTimer(stage).record(runnable);
+    }
+
+    /**
+     * Starts timing a stage which can't be wrapped in a lambda, e.g. since it throws checked exceptions. Pass the
+     * returned sample to {@link #endStage(Timer.Sample, String)}.
+     */
+    public Timer.Sample startStage() {
+        return Timer.start(meterRegistry);
+    }
+
+    public void endStage(Timer.Sample sample, String stage) {
+        sample.stop(getStageTimer(stage));
+    }
+
+    public void deployStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    public void deployEnded() {
+        inFlight.decrementAndGet();
+    }
+
+    public void recordBuildContextSize(long bytes) {
+        buildContextSize.record(bytes);
+    }
+
+    /**
+     * Records the end of a deployment, from when it was started until its build finished
+     *
+     * @param status the outcome
+     * @param duration the time taken
+     */
+    public void recordDeploymentEnd(DeploymentRecord.Status status, Duration duration) {
+        countOutcome(status.toString());
+        Timer.builder("managed.server.deploy.duration")
+                .description("Time from starting a deploy until its build is done, by outcome")
+                .tag("status", status.toString())
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(duration);
+    }
+
+    /**
+     * Records a deploy which did not need a build since nothing changed since the last one
+     */
+    public void recordDeploymentSkipped() {
+        countOutcome("SKIPPED");
+    }
+
+    private void countOutcome(String outcome) {
+        Counter.builder("managed.server.deploy.outcome")
+                .description("Number of finished deploys, by outcome")
+                .tag("status", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private Timer getStageTimer(String stage) {
+        return Timer.builder("managed.server.deploy.stage")
+                .description("Time taken by each stage of the deploy")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,126 @@
+package org.wildfly.managed.openshift;
+
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.operators.multi.processors.BroadcastProcessor;
+import org.jboss.logging.Logger;
+import org.wildfly.managed.common.value.AppState;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams the {@link AppState} of applications as it changes. The state is worked out again when the
+ * {@link OpenshiftStateCache} sees a Build or Deployment of the application change, so however many clients are
+ * watching an application, there is only the one shared watch, and one status lookup per change.
+ * <p/>
+ * If the cache is not available, the state of the watched applications is checked periodically instead.
+ */
+@ApplicationScoped
+public class AppStatusWatcher {
+    private static final Logger log = Logger.getLogger(AppStatusWatcher.class);
+
+    @Inject
+    OpenshiftFacade openshiftFacade;
+
+    @Inject
+    OpenshiftStateCache stateCache;
+
+    // The watched applications. Entries are removed when the last watcher goes away
+    private final Map<String, WatchedApp> watched = new ConcurrentHashMap<>();
+
+    void registerListener(@Observes StartupEvent event) {
+        stateCache.addAppChangeListener(appName -> {
+            WatchedApp app = watched.get(appName);
+            if (app != null) {
+                app.refresh();
+            }
+        });
+    }
+
+    @Scheduled(every = "${managed.server.status-stream.poll.every:10s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void pollIfNotCached() {
+        if (stateCache.isReady()) {
+            return;
+        }
+        for (WatchedApp app : watched.values()) {
+            app.refresh();
+        }
+    }
+
+    /**
+     * Streams the state of an application. The current state is sent first, followed by each change. The caller
+     * should check the application exists.
+     *
+     * @param appName the application name
+     * @return the states
+     */
+    public Multi<AppState> watch(String appName) {
+        return Multi.createFrom().deferred(() -> {
+            WatchedApp app = watched.compute(appName, (name, existing) -> {
+                WatchedApp result = existing == null ? new WatchedApp(name) : existing;
+                result.watchers++;
+                return result;
+            });
+            // Refresh once subscribed to the states, so that the new watcher gets the current state. Every refresh
+            // goes to all the watchers, but the others just see it as a repetition, which is dropped. A slow
+            // watcher only needs the latest state.
+            Multi<AppState> initialRefresh = Multi.createFrom().<AppState>empty().onSubscription().invoke(app::refresh);
+            return Multi.createBy().merging().streams(app.states.onOverflow().dropPreviousItems(), initialRefresh)
+                    .skip().repetitions()
+                    .onTermination().invoke(() -> unwatch(app));
+        });
+    }
+
+    private void unwatch(WatchedApp app) {
+        watched.computeIfPresent(app.appName, (name, existing) -> {
+            if (existing != app) {
+                return existing;
+            }
+            return --existing.watchers == 0 ? null : existing;
+        });
+    }
+
+    private class WatchedApp {
+        private final String appName;
+        private final BroadcastProcessor<AppState> states = BroadcastProcessor.create();
+        // Guarded by the compute functions of the watched map
+        private int watchers;
+        // The number of refreshes requested while one is running, so that they run one at a time and states are
+        // sent in order
+        private final AtomicInteger pendingRefreshes = new AtomicInteger();
+
+        WatchedApp(String appName) {
+            this.appName = appName;
+        }
+
+        void refresh() {
+            if (pendingRefreshes.getAndIncrement() == 0) {
+                // Looking up the state may need the database, so don't do it on the informer or event loop thread
+                Infrastructure.getDefaultWorkerPool().execute(this::runRefreshes);
+            }
+        }
+
+        private void runRefreshes() {
+            int missed;
+            do {
+                // Refreshes requested up to now are covered by this one
+                missed = pendingRefreshes.get();
+                AppState state;
+                try {
+                    state = openshiftFacade.getStatus(appName);
+                } catch (RuntimeException e) {
+                    log.warnf("Could not get the status of %s for its watchers. Message: %s", appName, e.getMessage());
+                    continue;
+                }
+                states.onNext(state);
+            } while (pendingRefreshes.addAndGet(-missed) != 0);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.wildfly.managed.openshift;
+
+import org.wildfly.managed.common.model.AppArchive;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * The archives which changed since the last successful build of an application. Refresh builds layer the build
+ * context onto the image of the previous build, so rather than the whole application directory they only need the
+ * changed archives, the config files, and a manifest telling the builder which archives to remove.
+ * <p/>
+ * The archives in each build are recorded as 'fileName=digest' lines by {@link #toArchiveDigests(List)}.
+ */
+class BuildContextDelta {
+    static final String MANIFEST = "build-context-manifest.properties";
+
+    private final List<String> changed;
+    private final List<String> removed;
+    private final int archiveCount;
+
+    private BuildContextDelta(List<String> changed, List<String> removed, int archiveCount) {
+        this.changed = changed;
+        this.removed = removed;
+        this.archiveCount = archiveCount;
+    }
+
+    /**
+     * @return the archives as sorted 'fileName=digest' lines, or {@code null} if an archive has no recorded digest
+     */
+    static String toArchiveDigests(List<AppArchive> archives) {
+        Map<String, String> digests = new TreeMap<>();
+        for (AppArchive archive : archives) {
+            if (archive.digest == null) {
+                return null;
+            }
+            digests.put(archive.fileName, archive.digest);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : digests.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Works out which archives changed since the last successful build
+     *
+     * @param previous the archive digests recorded for the last successful build
+     * @param current the archive digests of the build about to happen
+     * @return the delta, or {@code null} if either is not known, in which case the whole context is needed
+     */
+    static BuildContextDelta compute(String previous, String current) {
+        if (previous == null || current == null) {
+            return null;
+        }
+        Map<String, String> previousDigests = parse(previous);
+        Map<String, String> currentDigests = parse(current);
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> entry : currentDigests.entrySet()) {
+            if (!entry.getValue().equals(previousDigests.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (String fileName : previousDigests.keySet()) {
+            if (!currentDigests.containsKey(fileName)) {
+                removed.add(fileName);
+            }
+        }
+        return new BuildContextDelta(changed, removed, currentDigests.size());
+    }
+
+    private static Map<String, String> parse(String archiveDigests) {
+        Map<String, String> digests = new TreeMap<>();
+        for (String line : archiveDigests.split("\n")) {
+            int index = line.lastIndexOf('=');
+            if (index > 0) {
+                digests.put(line.substring(0, index), line.substring(index + 1));
+            }
+        }
+        return digests;
+    }
+
+    int getChangedCount() {
+        return changed.size();
+    }
+
+    int getArchiveCount() {
+        return archiveCount;
+    }
+
+    /**
+     * Writes the manifest to the application directory, and returns the files to include in the build context.
+     * The caller is responsible for deleting the manifest after the build has been triggered.
+     *
+     * @param appDir the application directory
+     * @return the changed archives, the other files which are not archives such as the config files, and the manifest
+     */
+    Path[] writeManifest(Path appDir) throws IOException {
+        StringBuilder sb = new StringBuilder()
+                .append("# Only the changed archives are in this build context. The other archives are unchanged since the\n")
+                .append("# previous build, apart from the removed ones which should be deleted from its image.\n")
+                .append("incremental=true\n")
+                .append("changed=").append(String.join(",", changed)).append('\n')
+                .append("removed=").append(String.join(",", removed)).append('\n');
+        Path manifest = appDir.resolve(MANIFEST);
+        Files.write(manifest, sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<Path> includes = new ArrayList<>();
+        for (String fileName : changed) {
+            includes.add(appDir.resolve(fileName));
+        }
+        try (Stream<Path> files = Files.list(appDir)) {
+            files.filter(file -> !file.getFileName().toString().endsWith(".war"))
+                    .forEach(includes::add);
+        }
+        return includes.toArray(new Path[0]);
+    }
+}
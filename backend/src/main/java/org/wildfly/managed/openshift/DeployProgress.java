@@ -0,0 +1,18 @@
+package org.wildfly.managed.openshift;
+
+/**
+ * Callback used by {@link OpenshiftFacade#deploy(String, boolean, boolean, DeployProgress)} to report the stage it
+ * has got to. Starting a stage ends the previous one.
+ */
+@FunctionalInterface
+public interface DeployProgress {
+    DeployProgress NONE = stage -> {};
+
+    String PREPARE = "prepare";
+    String HELM = "helm";
+    String CONFIGS = "configs";
+    String WAIT_FOR_BUILD_SLOT = "wait-for-build-slot";
+    String BUILD_UPLOAD = "build-upload";
+
+    void stage(String name);
+}
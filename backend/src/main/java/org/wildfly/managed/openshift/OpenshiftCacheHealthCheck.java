@@ -0,0 +1,38 @@
+package org.wildfly.managed.openshift;
+
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.HealthCheckResponseBuilder;
+import org.eclipse.microprofile.health.Readiness;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.Map;
+
+/**
+ * Reports whether the {@link OpenshiftStateCache} is synced and watching, on /q/health/ready. If an informer could
+ * not be started, the data includes the number of attempts and the last error.
+ * <p/>
+ * The check is always up. Reads fall back to the OpenShift API while the cache is not synced, so the backend can
+ * serve requests anyway, and taking it out of the Service would leave nothing to serve them when there is a single
+ * replica.
+ */
+@Readiness
+@ApplicationScoped
+public class OpenshiftCacheHealthCheck implements HealthCheck {
+
+    @Inject
+    OpenshiftStateCache stateCache;
+
+    @Override
+    public HealthCheckResponse call() {
+        HealthCheckResponseBuilder builder = HealthCheckResponse.named("openshift-cache");
+        if (!stateCache.isEnabled()) {
+            return builder.up().withData("enabled", false).build();
+        }
+        for (Map.Entry<String, String> entry : stateCache.getResourceStates().entrySet()) {
+            builder.withData(entry.getKey(), entry.getValue());
+        }
+        return builder.up().withData("synced", stateCache.isReady()).build();
+    }
+}
@@ -3,42 +3,61 @@ package org.wildfly.managed.openshift;
 import io.fabric8.kubernetes.api.model.apps.Deployment;
 import io.fabric8.kubernetes.api.model.apps.DeploymentStatus;
 import io.fabric8.openshift.api.model.Build;
-import io.fabric8.openshift.api.model.BuildList;
 import io.fabric8.openshift.api.model.BuildStatus;
 import io.fabric8.openshift.api.model.Route;
-import io.fabric8.openshift.api.model.RouteList;
 import io.fabric8.openshift.client.OpenShiftClient;
+import io.fabric8.openshift.client.dsl.InputStreamable;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
 import org.wildfly.managed.ConfigAdjuster;
-import org.wildfly.managed.ConfigFileInspection;
 import org.wildfly.managed.ServerException;
 import org.wildfly.managed.common.model.AppArchive;
-import org.wildfly.managed.common.model.Application;
+import org.wildfly.managed.common.model.DatabaseConnection;
 import org.wildfly.managed.common.model.DeploymentRecord;
+import org.wildfly.managed.common.util.Digests;
 import org.wildfly.managed.common.value.AppState;
 import org.wildfly.managed.config.UiPaths;
+import org.wildfly.managed.deploy.BuildLimiter;
+import org.wildfly.managed.deploy.BuildSlotUnavailableException;
+import org.wildfly.managed.deploy.DeployMetrics;
 import org.wildfly.managed.repo.ApplicationConfigs;
 import org.wildfly.managed.repo.ApplicationRepo;
+import org.wildfly.managed.repo.ApplicationSnapshot;
+import org.wildfly.managed.repo.ApplicationSummary;
+import org.wildfly.managed.store.ConfigFileCache;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.ws.rs.core.Response;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
 import static org.wildfly.managed.common.util.Constants.SERVER_CONFIG_XML;
 import static org.wildfly.managed.common.util.Constants.SERVER_INIT_CLI;
@@ -46,150 +65,288 @@ import static org.wildfly.managed.common.util.Constants.SERVER_INIT_YML;
 
 @ApplicationScoped
 public class OpenshiftFacade {
+    private static final Logger log = Logger.getLogger(OpenshiftFacade.class);
+
     private static final String INSTALL_HELM_SCRIPT = "install-helm.sh";
     private static final String UNINSTALL_HELM_SCRIPT = "uninstall-helm.sh";
 
     @Inject
     ApplicationRepo applicationRepo;
 
+    @Inject
+    ConfigFileCache configFileCache;
+
+    @Inject
+    DeployMetrics deployMetrics;
+
+    @Inject
+    BuildLimiter buildLimiter;
+
+    @Inject
+    Tracer tracer;
+
     @Inject
     OpenShiftClient openShiftClient;
 
     @Inject
     UiPaths uiPaths;
 
+    @Inject
+    OpenshiftStateCache stateCache;
+
     @ConfigProperty(name = "managed.server.openshift.project")
     String openshiftProject;
 
+    // Stream the build context tarball straight to OpenShift rather than writing it to a temporary file first
+    @ConfigProperty(name = "managed.server.openshift.packaging.streaming", defaultValue = "true")
+    boolean streamPackaging;
 
+    // Refresh builds only upload the archives which changed since the last completed deployment, rather than all of
+    // them. Off until the update build of the managed WildFly chart reads the build context manifest
+    @ConfigProperty(name = "managed.server.openshift.packaging.incremental-refresh", defaultValue = "false")
+    boolean incrementalRefresh;
 
-    public String deploy(String appName, boolean force, boolean refresh) {
-        System.out.println("In OpenshiftFacade.deploy()");
-        System.out.println("Project " + openshiftProject);
-        // TODO eventually we should install the Helm chart via `helm repository add`
+    // Applications whose Helm release is known to be installed
+    private final Set<String> installedHelmReleases = ConcurrentHashMap.newKeySet();
 
-        System.out.println("=====> Using client to get current user");
-        System.out.println(openShiftClient.currentUser().toString());
 
 
-        System.out.println("=====> Calling Helm to deploy application");
-        runScript(INSTALL_HELM_SCRIPT, appName, uiPaths.getTempHelmChart().toString());
-        System.out.println("=====> Called Helm to deploy application");
+    /**
+     * Deploys an application. This is slow, so is run by a worker rather than on the request thread.
+     *
+     * @param appName the application name
+     * @param force whether to cancel running builds, and to deploy even if nothing has changed
+     * @param refresh whether to refresh the archives of a running application
+     * @param progress notified of the stages of the deploy
+     * @return the name of the triggered build, or {@code null} if no build was needed
+     */
+    public String deploy(String appName, boolean force, boolean refresh, DeployProgress progress) {
+        progress.stage(DeployProgress.PREPARE);
+        log.debugf("Deploying %s in project %s", appName, openshiftProject);
+        // TODO eventually we should install the Helm chart via `helm repository add`
 
-        List<AppArchive> archives = applicationRepo.listArchivesForApp(appName);
-        if (archives.size() == 0) {
+        ApplicationSnapshot snapshot = deployMetrics.timeStage(DeployMetrics.STAGE_LOAD_APPLICATION, () -> applicationRepo.loadSnapshot(appName));
+        if (snapshot.getArchives().size() == 0) {
             throw new ServerException(Response.Status.CONFLICT, "Cannot deploy application since it has no archives added.");
         }
 
-        if (refresh) {
-            AppState.DeploymentState deploymentState = getDeploymentStatus(appName);
-            if (deploymentState != AppState.DeploymentState.RUNNING) {
-                throw new ServerException(Response.Status.CONFLICT, "Can only refresh a running application");
-            }
-            // TODO should check the configs haven't changed and error if they have.
+        String fingerprint = computeBuildFingerprint(snapshot);
+        String archiveDigests = BuildContextDelta.toArchiveDigests(snapshot.getArchives());
+        if (!force && isUnchangedSinceLastDeployment(appName, fingerprint)) {
+            log.infof("Nothing changed since the last deployment of %s. Not rebuilding", appName);
+            applicationRepo.recordUnchangedDeployment(appName, fingerprint, archiveDigests);
+            return null;
         }
 
-        if (hasRunningBuilds(appName)) {
-            if (!force) {
-                throw new ServerException(Response.Status.CONFLICT, "The application is currently building. You can stop the build by doing a force deploy");
-            } else {
-                // It would be nice to cancel the running builds here but I don't see how to just cancel.
-                // The delete we are doing later
-                applicationRepo.recordDeploymentEnd(appName, DeploymentRecord.Status.CANCELLED);
-            }
+        // Taken before anything changes in OpenShift. Once the build is triggered, the slot is given back when the
+        // deployment is recorded as ended
+        if (!buildLimiter.tryAcquire(appName)) {
+            throw new BuildSlotUnavailableException();
         }
-
-        // Unlock any existing builds and record the new one. Do this before all the OpenShift interaction
-        applicationRepo.recordDeploymentStart(appName, true);
+        boolean buildTriggered = false;
         try {
-            deleteAllBuilds(appName);
+            progress.stage(DeployProgress.HELM);
+            deployMetrics.timeStage(DeployMetrics.STAGE_HELM, () -> installHelmChartIfNeeded(appName));
 
-            outputConfigFilesToAppDirectory(appName);
+            if (refresh) {
+                AppState.DeploymentState deploymentState = getDeploymentStatus(appName);
+                if (deploymentState != AppState.DeploymentState.RUNNING) {
+                    throw new ServerException(Response.Status.CONFLICT, "Can only refresh a running application");
+                }
+                // TODO should check the configs haven't changed and error if they have.
+            }
 
-            Path appDir = uiPaths.getApplicationDir(appName);
-            new ConfigAdjuster()
-                    .adjustConfig(applicationRepo, appName)
-                    .updateConfigs(appDir);
+            if (hasRunningBuilds(appName)) {
+                if (!force) {
+                    throw new ServerException(Response.Status.CONFLICT, "The application is currently building. You can stop the build by doing a force deploy");
+                } else {
+                    // It would be nice to cancel the running builds here but I don't see how to just cancel.
+                    // The delete we are doing later
+                    applicationRepo.recordDeploymentEnd(appName, DeploymentRecord.Status.CANCELLED);
+                }
+            }
 
-            File tarBall = Packaging.packageFile(appDir, appDir);
-            Build build;
+            // Unlock any existing builds and record the new one. Do this before all the OpenShift interaction
+            applicationRepo.recordDeploymentStart(appName, true, fingerprint, archiveDigests);
             try {
-                String buildName = !refresh ? appName + "-deployment-build" : appName + "-update-build";
-
-                build = openShiftClient.buildConfigs()
-                        .inNamespace(openshiftProject)
-                        .withName(buildName)
-                        .instantiateBinary()
-                        .fromFile(tarBall);
-                applicationRepo.recordTriggeredBuild(appName);
-            } finally {
-                try {
-                    Files.delete(Paths.get(tarBall.toURI()));
-                } catch (IOException nonFatal) {
-                    System.out.println("Could not delete temporary tarball for app '" + appName + "' " + tarBall.getAbsolutePath() + ". Message: " + nonFatal.getMessage());
-                }
+                deleteAllBuilds(appName);
+
+                progress.stage(DeployProgress.CONFIGS);
+                deployMetrics.timeStage(DeployMetrics.STAGE_CONFIG_EXTRACTION, () -> outputConfigFilesToAppDirectory(snapshot));
+
+                Path appDir = uiPaths.getApplicationDir(appName);
+                deployMetrics.timeStage(DeployMetrics.STAGE_CONFIG_ADJUST, () -> new ConfigAdjuster()
+                        .adjustConfig(snapshot.getDatabaseConnections())
+                        .updateConfigs(appDir));
+
+                progress.stage(DeployProgress.BUILD_UPLOAD);
+                BuildContextDelta delta = refresh && incrementalRefresh ? getRefreshDelta(appName, archiveDigests) : null;
+                File tarBall = null;
+                Build build;
                 try {
-                    deleteIfExists(appDir.resolve(SERVER_CONFIG_XML), true);
-                    deleteIfExists(appDir.resolve(SERVER_INIT_CLI), true);
-                    deleteIfExists(appDir.resolve(SERVER_INIT_YML), true);
-                } catch (IOException ignore) {
-                    // Won't happen since we swallow it in the deleteIfExists call
+                    final Path[] includes = delta == null ? new Path[]{appDir} : writeManifest(delta, appDir);
+                    if (!streamPackaging) {
+                        tarBall = deployMetrics.timeStage(DeployMetrics.STAGE_PACKAGE, () -> Packaging.packageFile(appDir, includes));
+                    }
+                    String buildName = !refresh ? appName + "-deployment-build" : appName + "-update-build";
+
+                    InputStreamable<Build> binaryBuild = openShiftClient.buildConfigs()
+                            .inNamespace(openshiftProject)
+                            .withName(buildName)
+                            .instantiateBinary();
+                    Timer.Sample upload = deployMetrics.startStage();
+                    if (tarBall == null) {
+                        try (CountingInputStream tarStream = new CountingInputStream(Packaging.streamFile(appDir, includes))) {
+                            build = binaryBuild.fromInputStream(tarStream);
+                            deployMetrics.recordBuildContextSize(tarStream.count);
+                        } catch (IOException e) {
+                            throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Error uploading the application. " + e.getMessage(), e);
+                        }
+                    } else {
+                        build = binaryBuild.fromFile(tarBall);
+                        deployMetrics.recordBuildContextSize(tarBall.length());
+                    }
+                    deployMetrics.endStage(upload, DeployMetrics.STAGE_UPLOAD);
+                    applicationRepo.recordTriggeredBuild(appName);
+                    buildTriggered = true;
+                } finally {
+                    if (tarBall != null) {
+                        try {
+                            Files.delete(Paths.get(tarBall.toURI()));
+                        } catch (IOException nonFatal) {
+                            log.warnf("Could not delete temporary tarball for app '%s' %s. Message: %s", appName, tarBall.getAbsolutePath(), nonFatal.getMessage());
+                        }
+                    }
+                    try {
+                        deleteIfExists(appDir.resolve(SERVER_CONFIG_XML), true);
+                        deleteIfExists(appDir.resolve(SERVER_INIT_CLI), true);
+                        deleteIfExists(appDir.resolve(SERVER_INIT_YML), true);
+                        deleteIfExists(appDir.resolve(BuildContextDelta.MANIFEST), true);
+                    } catch (IOException ignore) {
+                        // Won't happen since we swallow it in the deleteIfExists call
+                    }
                 }
+                return build.getMetadata().getName();
+            } catch (Error | RuntimeException e) {
+                applicationRepo.recordDeploymentEnd(appName, DeploymentRecord.Status.FAILED);
+                throw e;
             }
-            return build.getMetadata().getName();
         } catch (Error | RuntimeException e) {
-            applicationRepo.recordDeploymentEnd(appName, DeploymentRecord.Status.FAILED);
+            if (!buildTriggered) {
+                buildLimiter.release(appName);
+            }
             throw e;
         }
     }
 
+    /**
+     * Computes a fingerprint of everything that goes into the build of an application: the archive contents,
+     * the config files, the database connections and the Helm chart.
+     *
+     * @return the fingerprint, or {@code null} if it can't be determined since an archive has no recorded digest
+     */
+    private String computeBuildFingerprint(ApplicationSnapshot snapshot) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (AppArchive archive : snapshot.getArchives()) {
+            if (archive.digest == null) {
+                return null;
+            }
+            updateFingerprint(md, "archive", archive.fileName, archive.digest);
+        }
+        ApplicationConfigs configs = snapshot.getConfigs();
+        updateFingerprint(md, "config", configs.getXml(), configs.getCli(), configs.getYml());
+        for (DatabaseConnection connection : snapshot.getDatabaseConnections()) {
+            updateFingerprint(md, "db", connection.jndiName, String.valueOf(connection.type), connection.url,
+                    connection.username, connection.password);
+        }
+        updateFingerprint(md, "chart", uiPaths.getTempHelmChartDigest());
+        return Digests.toHex(md.digest());
+    }
+
+    private void updateFingerprint(MessageDigest md, String... values) {
+        for (String value : values) {
+            // Include the length so that values can't run into each other
+            String s = value == null ? "-1:" : value.length() + ":" + value;
+            md.update(s.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Works out what a refresh build needs to upload. The update build layers its context onto the image of the last
+     * build, so only the archives which changed since the last completed deployment are needed.
+     *
+     * @return the delta, or {@code null} if it is not known what went into the last build
+     */
+    private BuildContextDelta getRefreshDelta(String appName, String archiveDigests) {
+        DeploymentRecord last = applicationRepo.getLastCompletedDeployment(appName);
+        BuildContextDelta delta = BuildContextDelta.compute(last == null ? null : last.archiveDigests, archiveDigests);
+        if (delta == null) {
+            log.infof("The archives of the last build of %s are not known. Uploading all of them", appName);
+        } else {
+            log.infof("Refreshing %s with %d of its %d archives", appName, delta.getChangedCount(), delta.getArchiveCount());
+        }
+        return delta;
+    }
+
+    private Path[] writeManifest(BuildContextDelta delta, Path appDir) {
+        try {
+            return delta.writeManifest(appDir);
+        } catch (IOException e) {
+            throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Error writing the build context manifest to " + appDir + ". " + e.getMessage(), e);
+        }
+    }
+
+    private boolean isUnchangedSinceLastDeployment(String appName, String fingerprint) {
+        if (fingerprint == null) {
+            return false;
+        }
+        DeploymentRecord last = applicationRepo.getLastCompletedDeployment(appName);
+        if (last == null || !fingerprint.equals(last.fingerprint)) {
+            return false;
+        }
+        // Make sure the last deployment is still what is running
+        return getDeploymentStatus(appName) == AppState.DeploymentState.RUNNING && !hasRunningBuilds(appName);
+    }
+
     public void cancelBuild(String appName) {
         deleteAllBuilds(appName);
         applicationRepo.recordDeploymentEnd(appName, DeploymentRecord.Status.CANCELLED);
     }
 
 
-    private void outputConfigFilesToAppDirectory(String appName) {
-        Application application = applicationRepo.findByName(appName);
-        Path appDir = uiPaths.getApplicationDir(appName);
+    private void outputConfigFilesToAppDirectory(ApplicationSnapshot snapshot) {
+        Path appDir = uiPaths.getApplicationDir(snapshot.getName());
 
         // Output the archive config files first. If there is a same one in the ApplicationConfigs, that should overwrite
-        List<AppArchive> archives = applicationRepo.listArchivesForApp(appName);
-        for (AppArchive archive : archives) {
-            if (archive.serverConfigXml) {
-                getFileFromArchive(appDir.resolve(archive.fileName), ConfigFileInspection.SERVER_CONFIG_XML);
-            }
-            if (archive.serverInitCli) {
-                getFileFromArchive(appDir.resolve(archive.fileName), ConfigFileInspection.SERVER_INIT_CLI);
-            }
-            if (archive.serverInitYml) {
-                getFileFromArchive(appDir.resolve(archive.fileName), ConfigFileInspection.SERVER_INIT_YML);
-            }
+        for (AppArchive archive : snapshot.getArchives()) {
+            configFileCache.copyConfigFiles(archive, appDir.resolve(archive.fileName), appDir);
         }
 
-
-        if (application.hasServerConfigXml || application.hasServerInitYml || application.hasServerInitCli) {
-            ApplicationConfigs configs = applicationRepo.getConfigFileContents(appName);
-            try {
-                if (application.hasServerConfigXml) {
-                    Path file = appDir.resolve(SERVER_CONFIG_XML);
-                    deleteIfExists(file, false);
-                    Files.write(file, configs.getXml().getBytes(StandardCharsets.UTF_8));
-                }
-                if (application.hasServerInitCli) {
-                    Path file = appDir.resolve(SERVER_INIT_CLI);
-                    deleteIfExists(file, false);
-                    Files.write(appDir.resolve(file), configs.getCli().getBytes(StandardCharsets.UTF_8));
-                }
-                if (application.hasServerInitYml) {
-                    Path file = appDir.resolve(SERVER_INIT_YML);
-                    deleteIfExists(file, false);
-                    Files.write(appDir.resolve(file), configs.getYml().getBytes(StandardCharsets.UTF_8));
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-                throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Error saving config files to " + appDir + ". " + e.getMessage());
+        ApplicationConfigs configs = snapshot.getConfigs();
+        try {
+            if (configs.getXml() != null) {
+                Path file = appDir.resolve(SERVER_CONFIG_XML);
+                deleteIfExists(file, false);
+                Files.write(file, configs.getXml().getBytes(StandardCharsets.UTF_8));
             }
+            if (configs.getCli() != null) {
+                Path file = appDir.resolve(SERVER_INIT_CLI);
+                deleteIfExists(file, false);
+                Files.write(file, configs.getCli().getBytes(StandardCharsets.UTF_8));
+            }
+            if (configs.getYml() != null) {
+                Path file = appDir.resolve(SERVER_INIT_YML);
+                deleteIfExists(file, false);
+                Files.write(file, configs.getYml().getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            log.errorf(e, "Error saving config files to %s", appDir);
+            throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Error saving config files to " + appDir + ". " + e.getMessage());
         }
     }
 
@@ -199,7 +356,7 @@ public class OpenshiftFacade {
                 Files.delete(path);
             } catch (IOException e) {
                 if (swallowException) {
-                    e.printStackTrace();
+                    log.warnf(e, "Could not delete %s", path);
                 } else {
                     throw e;
                 }
@@ -207,6 +364,33 @@ public class OpenshiftFacade {
         }
     }
 
+    /**
+     * Installs the Helm chart for the application, unless the release is already there. Once a release is seen, that
+     * is remembered until the application is deleted, so repeat deploys don't talk to OpenShift or fork Helm at all.
+     */
+    private void installHelmChartIfNeeded(String appName) {
+        if (installedHelmReleases.contains(appName)) {
+            return;
+        }
+        if (!isHelmReleaseInstalled(appName)) {
+            log.infof("Calling Helm to install the chart for %s", appName);
+            runScript(INSTALL_HELM_SCRIPT, appName, uiPaths.getTempHelmChart().toString());
+        }
+        installedHelmReleases.add(appName);
+    }
+
+    private boolean isHelmReleaseInstalled(String appName) {
+        // Helm 3 stores each revision of a release in a Secret labelled with the release name and status
+        return !openShiftClient.secrets()
+                .inNamespace(openshiftProject)
+                .withLabel("owner", "helm")
+                .withLabel("name", appName)
+                .withLabel("status", "deployed")
+                .list()
+                .getItems()
+                .isEmpty();
+    }
+
     private void runScript(String script, String... arguments) {
         java.nio.file.Path scriptDir = uiPaths.getScriptsDir();
         java.nio.file.Path scriptPath =
@@ -218,6 +402,21 @@ public class OpenshiftFacade {
         List<String> command = new ArrayList<>();
         command.add(scriptPath.toString());
         command.addAll(Arrays.asList(arguments));
+        Span span = tracer.spanBuilder("exec " + script)
+                .setAttribute("process.command_line", String.join(" ", command))
+                .startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            runProcess(script, scriptDir, command, span);
+        } catch (RuntimeException e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    private void runProcess(String script, java.nio.file.Path scriptDir, List<String> command, Span span) {
         ProcessBuilder pb = new ProcessBuilder(command);
         pb.directory(scriptDir.toFile());
         pb.redirectError(ProcessBuilder.Redirect.INHERIT);
@@ -225,21 +424,44 @@ public class OpenshiftFacade {
         try {
             process = pb.start();
         } catch (IOException e) {
-            e.printStackTrace();
+            log.errorf(e, "Could not run %s", command.get(0));
             throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, e.getMessage());
         }
         try {
-            int exit = process.waitFor();
-            System.out.println("Exit code: " + exit);
+            // Process.waitFor() waits in a synchronized block, which would pin the carrier of a virtual thread
+            int exit = process.onExit().get().exitValue();
+            log.debugf("%s exited with %d", script, exit);
+            span.setAttribute("process.exit_code", exit);
             if (exit != 0) {
                 throw new RuntimeException("Was not able to install Application. Helm chart returned " + exit);
             }
+        } catch (ExecutionException e) {
+            throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Error waiting for " + script + ". " + e.getCause().getMessage(), e.getCause());
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            log.warnf("Interrupted waiting for %s", script);
+            Thread.currentThread().interrupt();
         }
     }
 
     public AppState getStatus(String appName) {
+        return getStatus(appName, () -> applicationRepo.getStageStatus(appName));
+    }
+
+    /**
+     * Non-blocking version of {@link #getStatus(String)}, for when the stage state has already been looked up
+     * without blocking. Without the local cache the OpenShift client blocks, in which case this runs on a worker
+     * thread.
+     */
+    public Uni<AppState> getStatusAsync(String appName, AppState.StageState stageState) {
+        return fromCacheOrWorker(() -> getStatus(appName, () -> stageState));
+    }
+
+    private <T> Uni<T> fromCacheOrWorker(Supplier<T> supplier) {
+        Uni<T> uni = Uni.createFrom().item(supplier);
+        return stateCache.isReady() ? uni : uni.runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
+    }
+
+    private AppState getStatus(String appName, Supplier<AppState.StageState> stageStateSupplier) {
         AppState.DeploymentState deploymentState = getDeploymentStatus(appName);
         AppState.BuildState buildState = getBuildState(appName);
 
@@ -249,14 +471,112 @@ public class OpenshiftFacade {
 
         AppState.StageState stageState =
                 (deploymentState == AppState.DeploymentState.DEPLOYING || deploymentState == AppState.DeploymentState.RUNNING) ?
-                        applicationRepo.getStageStatus(appName) : AppState.StageState.UP_TO_DATE;
+                        stageStateSupplier.get() : AppState.StageState.UP_TO_DATE;
         return new AppState(deploymentState, buildState, stageState);
     }
 
+    /**
+     * Gets the status of several applications at once. Rather than querying OpenShift for each application, this
+     * lists all the Deployments and Builds labelled with 'app' once, and groups them by application in memory.
+     *
+     * @param applications the applications to get the status for
+     * @return the status of each application, keyed by application name in the order of the passed in applications
+     */
+    public Map<String, AppState> getStatuses(List<ApplicationSummary> applications) {
+        boolean cached = stateCache.isReady();
+        List<Deployment> deploymentList = cached ?
+                stateCache.getAllDeployments() : openShiftClient.apps().deployments().withLabel("app").list().getItems();
+        List<Build> buildList = cached ?
+                stateCache.getAllBuilds() : openShiftClient.builds().withLabel("app").list().getItems();
+
+        Map<String, Deployment> deployments = new HashMap<>();
+        for (Deployment deployment : deploymentList) {
+            deployments.put(deployment.getMetadata().getName(), deployment);
+        }
+        Map<String, List<Build>> builds = new HashMap<>();
+        for (Build build : buildList) {
+            String appName = build.getMetadata().getLabels().get("app");
+            builds.computeIfAbsent(appName, k -> new ArrayList<>()).add(build);
+        }
+        Map<String, AppState.StageState> stageStates = applicationRepo.getStageStatuses(applications);
+
+        Map<String, AppState> statuses = new LinkedHashMap<>();
+        for (ApplicationSummary application : applications) {
+            AppState.DeploymentState deploymentState = toDeploymentState(deployments.get(application.getName()));
+            AppState.BuildState buildState = toBuildState(builds.getOrDefault(application.getName(), Collections.emptyList()));
+
+            if (buildState == AppState.BuildState.COMPLETED && deploymentState == AppState.DeploymentState.NOT_DEPLOYED) {
+                buildState = AppState.BuildState.NOT_RUNNING;
+            }
+
+            AppState.StageState stageState =
+                    (deploymentState == AppState.DeploymentState.DEPLOYING || deploymentState == AppState.DeploymentState.RUNNING) ?
+                            stageStates.get(application.getName()) : AppState.StageState.UP_TO_DATE;
+            statuses.put(application.getName(), new AppState(deploymentState, buildState, stageState));
+        }
+        return statuses;
+    }
+
+    /**
+     * Finds the applications whose Deployments match a label selector. Only applications which have been deployed
+     * have a Deployment, so can be found this way.
+     *
+     * @param selector comma separated 'key=value' or 'key' entries, all of which must match
+     * @return the names of the matching applications
+     */
+    public Set<String> findApplicationsByLabels(String selector) {
+        Map<String, String> required = new HashMap<>();
+        for (String entry : selector.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int index = entry.indexOf('=');
+            String key = (index == -1 ? entry : entry.substring(0, index)).trim();
+            if (key.isEmpty() || entry.indexOf('=', index + 1) != -1) {
+                throw new ServerException(Response.Status.BAD_REQUEST, "Bad label selector: " + selector);
+            }
+            required.put(key, index == -1 ? null : entry.substring(index + 1).trim());
+        }
+        if (required.isEmpty()) {
+            throw new ServerException(Response.Status.BAD_REQUEST, "Empty label selector");
+        }
+
+        List<Deployment> deployments = stateCache.isReady() ?
+                stateCache.getAllDeployments() : openShiftClient.apps().deployments().withLabel("app").list().getItems();
+        Set<String> appNames = new TreeSet<>();
+        for (Deployment deployment : deployments) {
+            Map<String, String> labels = deployment.getMetadata().getLabels();
+            if (labels != null && matches(labels, required)) {
+                appNames.add(deployment.getMetadata().getName());
+            }
+        }
+        return appNames;
+    }
+
+    private static boolean matches(Map<String, String> labels, Map<String, String> required) {
+        for (Map.Entry<String, String> entry : required.entrySet()) {
+            String value = labels.get(entry.getKey());
+            if (value == null || (entry.getValue() != null && !entry.getValue().equals(value))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Non-blocking version of {@link #getRoutes(String)}. Without the local cache the OpenShift client blocks, in which
+     * case this runs on a worker thread.
+     */
+    public Uni<List<String>> getRoutesAsync(String appName) {
+        return fromCacheOrWorker(() -> getRoutes(appName));
+    }
+
     public List<String> getRoutes(String appName) {
-        RouteList routes = openShiftClient.routes().withLabel("app", appName).list();
+        List<Route> routes = stateCache.isReady() ?
+                stateCache.getRoutes(appName) : openShiftClient.routes().withLabel("app", appName).list().getItems();
         List<String> appRoutes = new ArrayList<>();
-        for (Route route : routes.getItems()) {
+        for (Route route : routes) {
             appRoutes.add(route.getSpec().getHost());
         }
 
@@ -265,6 +585,7 @@ public class OpenshiftFacade {
 
     public void delete(String appName) {
         openShiftClient.apps().deployments().withLabel("app", appName).delete();
+        installedHelmReleases.remove(appName);
         runScript(UNINSTALL_HELM_SCRIPT, appName);
     }
 
@@ -276,7 +597,12 @@ public class OpenshiftFacade {
     }
 
     private AppState.DeploymentState getDeploymentStatus(String appName) {
-        Deployment deployment = openShiftClient.apps().deployments().withName(appName).get();
+        Deployment deployment = stateCache.isReady() ?
+                stateCache.getDeployment(appName) : openShiftClient.apps().deployments().withName(appName).get();
+        return toDeploymentState(deployment);
+    }
+
+    private AppState.DeploymentState toDeploymentState(Deployment deployment) {
         if (deployment == null) {
             return AppState.DeploymentState.NOT_DEPLOYED;
         }
@@ -291,13 +617,14 @@ public class OpenshiftFacade {
     }
 
     public AppState.BuildState getBuildState(String appName) {
-        Application app = applicationRepo.findByName(appName);
-        BuildList buildList = openShiftClient.builds().withLabel("app", appName).list();
+        applicationRepo.findByName(appName);
 
         // TODO don't include old builds
-        System.out.println("Checking build statuses");
+        return toBuildState(listBuilds(appName));
+    }
 
-        for (Build build : buildList.getItems()) {
+    private AppState.BuildState toBuildState(List<Build> builds) {
+        for (Build build : builds) {
             BuildStatus status = build.getStatus();
             String start = status.getStartTimestamp();
             String completion = status.getCompletionTimestamp();
@@ -314,11 +641,11 @@ public class OpenshiftFacade {
 
         // TODO figure out how to determine the state of each build from their BuildStatus
 
-        return buildList.getItems().size() == 0 ? AppState.BuildState.NOT_RUNNING : AppState.BuildState.COMPLETED;
+        return builds.size() == 0 ? AppState.BuildState.NOT_RUNNING : AppState.BuildState.COMPLETED;
     }
 
     private boolean hasRunningBuilds(String appName) {
-        for (Build build : openShiftClient.builds().withLabel("app", appName).list().getItems()) {
+        for (Build build : listBuilds(appName)) {
             BuildStatus status = build.getStatus();
             if (status.getStartTimestamp() == null) {
                 return true;
@@ -330,36 +657,47 @@ public class OpenshiftFacade {
         return false;
     }
 
+    private List<Build> listBuilds(String appName) {
+        if (stateCache.isReady()) {
+            return stateCache.getBuilds(appName);
+        }
+        return openShiftClient.builds().withLabel("app", appName).list().getItems();
+    }
+
     private void deleteAllBuilds(String appName) {
         openShiftClient.builds().withLabel("app", appName).delete();
     }
 
-    private void getFileFromArchive(Path archivePath, String name)  {
-        try {
-            ZipInputStream zin = new ZipInputStream(new BufferedInputStream(new FileInputStream(archivePath.toFile())));
-            ZipEntry entry = zin.getNextEntry();
-            while (entry != null) {
-                try {
-                    if (entry.isDirectory()) {
-                        continue;
-                    }
-                    if (entry.getName().equals(name) && !entry.isDirectory()) {
-                        Path path = archivePath.getParent().resolve(name.substring(name.lastIndexOf("/") + 1));
-                        byte[] buffer = new byte[1024];
-                        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path.toFile()))) {
-                            int len;
-                            while ((len = zin.read(buffer)) > 0) {
-                                out.write(buffer, 0, len);
-                            }
-                        }
-                    }
-                } finally {
-                    zin.closeEntry();
-                    entry = zin.getNextEntry();
-                }
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
             }
-        } catch (IOException e) {
-            throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Error unzipping " + name + " from " + archivePath);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
         }
     }
 }
@@ -0,0 +1,333 @@
+package org.wildfly.managed.openshift;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.apps.Deployment;
+import io.fabric8.kubernetes.client.dsl.Informable;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import io.fabric8.openshift.api.model.Build;
+import io.fabric8.openshift.api.model.Route;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Keeps a local copy of the Builds, Deployments and Routes labelled with 'app', kept up to date by informers
+ * watching OpenShift. Lookups are indexed by the 'app' label.
+ *
+ * The lookup methods may only be used when {@link #isReady()} returns {@code true}. While the cache is disabled, or
+ * has not synced yet, callers should read from OpenShift directly.
+ * <p/>
+ * The informers are started on a dedicated executor, since the initial list blocks. If that fails, e.g. since
+ * OpenShift can't be reached, the start is retried with an exponential backoff. The state of each informer is
+ * reported by the readiness health check.
+ */
+@ApplicationScoped
+public class OpenshiftStateCache {
+    private static final Logger log = Logger.getLogger(OpenshiftStateCache.class);
+
+    private static final String APP_INDEX = "app";
+
+    @Inject
+    OpenShiftClient openShiftClient;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    @ConfigProperty(name = "managed.server.openshift.cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "managed.server.openshift.cache.resync", defaultValue = "5m")
+    Duration resyncPeriod;
+
+    @ConfigProperty(name = "managed.server.openshift.cache.start-retry.initial", defaultValue = "1s")
+    Duration initialRetryDelay;
+
+    @ConfigProperty(name = "managed.server.openshift.cache.start-retry.max", defaultValue = "5m")
+    Duration maxRetryDelay;
+
+    private final List<Consumer<Build>> buildListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<String>> appChangeListeners = new CopyOnWriteArrayList<>();
+
+    private volatile CachedResource<Build> builds;
+    private volatile CachedResource<Deployment> deployments;
+    private volatile CachedResource<Route> routes;
+
+    // Starts the informers, and retries them if that fails. Only set when enabled
+    private ScheduledExecutorService startExecutor;
+
+    void start(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        AtomicInteger count = new AtomicInteger();
+        startExecutor = Executors.newScheduledThreadPool(3, r -> {
+            Thread t = new Thread(r, "openshift-cache-start-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        builds = new CachedResource<>("builds", openShiftClient.builds().withLabel(APP_INDEX), buildListeners, appChangeListeners);
+        deployments = new CachedResource<>("deployments", openShiftClient.apps().deployments().withLabel(APP_INDEX), Collections.emptyList(), appChangeListeners);
+        routes = new CachedResource<>("routes", openShiftClient.routes().withLabel(APP_INDEX), Collections.emptyList(), Collections.emptyList());
+    }
+
+    void stop(@Observes ShutdownEvent event) {
+        if (startExecutor != null) {
+            startExecutor.shutdownNow();
+        }
+        for (CachedResource<?> resource : new CachedResource<?>[]{builds, deployments, routes}) {
+            if (resource != null) {
+                resource.stop();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether the cache has synced and is watching for changes. If not, callers should read from OpenShift directly.
+     *
+     * @return whether the cache is ready
+     */
+    public boolean isReady() {
+        return builds != null && builds.isReady()
+                && deployments != null && deployments.isReady()
+                && routes != null && routes.isReady();
+    }
+
+    /**
+     * Describes the state of the informer of each cached resource, e.g. for the health check
+     *
+     * @return the state of each cached resource, by resource name
+     */
+    public Map<String, String> getResourceStates() {
+        Map<String, String> states = new LinkedHashMap<>();
+        for (CachedResource<?> resource : new CachedResource<?>[]{builds, deployments, routes}) {
+            if (resource != null) {
+                states.put(resource.name, resource.describeState());
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Registers a listener which is called with the new state of a Build whenever one is added or changes. Resyncs
+     * of unchanged Builds are not reported. Listeners are called on the informer thread, so should return quickly.
+     *
+     * @param listener the listener
+     */
+    public void addBuildListener(Consumer<Build> listener) {
+        buildListeners.add(listener);
+    }
+
+    /**
+     * Registers a listener which is called with the application name whenever one of its Builds or Deployments is
+     * added, changed or deleted, i.e. whenever its {@link org.wildfly.managed.common.value.AppState} may have
+     * changed. Resyncs of unchanged resources are not reported. Listeners are called on the informer threads, so
+     * should return quickly.
+     *
+     * @param listener the listener
+     */
+    public void addAppChangeListener(Consumer<String> listener) {
+        appChangeListeners.add(listener);
+    }
+
+    public List<Build> getBuilds(String appName) {
+        return builds.informer.getIndexer().byIndex(APP_INDEX, appName);
+    }
+
+    public List<Build> getAllBuilds() {
+        return builds.informer.getStore().list();
+    }
+
+    /**
+     * Gets the deployment with the same name as the application
+     *
+     * @param appName the application name
+     * @return the deployment, or {@code null} if there is none
+     */
+    public Deployment getDeployment(String appName) {
+        for (Deployment deployment : deployments.informer.getIndexer().byIndex(APP_INDEX, appName)) {
+            if (deployment.getMetadata().getName().equals(appName)) {
+                return deployment;
+            }
+        }
+        return null;
+    }
+
+    public List<Deployment> getAllDeployments() {
+        return deployments.informer.getStore().list();
+    }
+
+    public List<Route> getRoutes(String appName) {
+        return routes.informer.getIndexer().byIndex(APP_INDEX, appName);
+    }
+
+    private static List<String> appLabel(HasMetadata resource) {
+        Map<String, String> labels = resource.getMetadata().getLabels();
+        String app = labels == null ? null : labels.get(APP_INDEX);
+        return app == null ? Collections.emptyList() : Collections.singletonList(app);
+    }
+
+    private class CachedResource<T extends HasMetadata> implements ResourceEventHandler<T> {
+        private final String name;
+        private final Informable<T> informable;
+        private final List<Consumer<T>> listeners;
+        private final List<Consumer<String>> appChangeListeners;
+        // Replaced when the start is retried, since an informer can't be run again
+        private volatile SharedIndexInformer<T> informer;
+        private volatile long lastEventMillis;
+        private volatile int failedStarts;
+        private volatile String lastStartError;
+
+        CachedResource(String name, Informable<T> informable, List<Consumer<T>> listeners, List<Consumer<String>> appChangeListeners) {
+            this.name = name;
+            this.informable = informable;
+            this.listeners = listeners;
+            this.appChangeListeners = appChangeListeners;
+            this.informer = createInformer();
+            lastEventMillis = System.currentTimeMillis();
+
+            Gauge.builder("managed.server.openshift.cache.staleness", this, CachedResource::getSecondsSinceLastEvent)
+                    .description("Seconds since the last watch event or resync for the cached resource")
+                    .baseUnit("seconds")
+                    .tag("resource", name)
+                    .register(meterRegistry);
+            Gauge.builder("managed.server.openshift.cache.size", this, r -> r.informer.getStore().list().size())
+                    .description("Number of cached resources")
+                    .tag("resource", name)
+                    .register(meterRegistry);
+            Gauge.builder("managed.server.openshift.cache.ready", this, r -> r.isReady() ? 1 : 0)
+                    .description("Whether the cache is synced and watching, so that lookups are served from memory")
+                    .tag("resource", name)
+                    .register(meterRegistry);
+
+            // The initial list blocks, so don't hold up startup. Until this is done, callers read from OpenShift.
+            startExecutor.execute(this::runInformer);
+        }
+
+        private SharedIndexInformer<T> createInformer() {
+            SharedIndexInformer<T> informer = informable
+                    .withIndexers(Collections.singletonMap(APP_INDEX, OpenshiftStateCache::appLabel))
+                    .runnableInformer(resyncPeriod.toMillis());
+            informer.addEventHandler(this);
+            return informer;
+        }
+
+        private void runInformer() {
+            try {
+                informer.run();
+                if (failedStarts > 0) {
+                    log.infof("Started the %s informer after %d failed attempts", name, failedStarts);
+                }
+                failedStarts = 0;
+                lastStartError = null;
+            } catch (RuntimeException e) {
+                informer.stop();
+                lastStartError = e.getMessage();
+                long delay = getRetryDelayMillis(++failedStarts);
+                log.warnf("Could not start the %s informer. Reading directly from OpenShift, and retrying in %d ms. Message: %s",
+                        name, delay, e.getMessage());
+                informer = createInformer();
+                if (!startExecutor.isShutdown()) {
+                    startExecutor.schedule(this::runInformer, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private long getRetryDelayMillis(int failedStarts) {
+            // Doubles with each failure, capping the shift so that it doesn't overflow
+            long delay = initialRetryDelay.toMillis() << Math.min(failedStarts - 1, 20);
+            return Math.min(delay, maxRetryDelay.toMillis());
+        }
+
+        boolean isReady() {
+            return informer.hasSynced() && informer.isWatching();
+        }
+
+        String describeState() {
+            if (isReady()) {
+                return "ready";
+            }
+            if (failedStarts > 0) {
+                return "not started after " + failedStarts + " attempts: " + lastStartError;
+            }
+            return informer.hasSynced() ? "not watching" : "syncing";
+        }
+
+        void stop() {
+            informer.stop();
+        }
+
+        double getSecondsSinceLastEvent() {
+            return (System.currentTimeMillis() - lastEventMillis) / 1000.0;
+        }
+
+        @Override
+        public void onAdd(T obj) {
+            lastEventMillis = System.currentTimeMillis();
+            notifyListeners(obj);
+        }
+
+        @Override
+        public void onUpdate(T oldObj, T newObj) {
+            // Also called on resync
+            lastEventMillis = System.currentTimeMillis();
+            if (!Objects.equals(oldObj.getMetadata().getResourceVersion(), newObj.getMetadata().getResourceVersion())) {
+                notifyListeners(newObj);
+            }
+        }
+
+        @Override
+        public void onDelete(T obj, boolean deletedFinalStateUnknown) {
+            lastEventMillis = System.currentTimeMillis();
+            notifyAppChangeListeners(obj);
+        }
+
+        private void notifyListeners(T obj) {
+            for (Consumer<T> listener : listeners) {
+                try {
+                    listener.accept(obj);
+                } catch (RuntimeException e) {
+                    log.error("Error notifying a listener of a cache change", e);
+                }
+            }
+            notifyAppChangeListeners(obj);
+        }
+
+        private void notifyAppChangeListeners(T obj) {
+            for (String appName : appLabel(obj)) {
+                for (Consumer<String> listener : appChangeListeners) {
+                    try {
+                        listener.accept(appName);
+                    } catch (RuntimeException e) {
+                        log.error("Error notifying a listener of an application change", e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -23,6 +23,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -32,6 +35,8 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 /**
@@ -49,6 +54,8 @@ public class Packaging {
 
   private static final Charset UTF_8 = Charset.forName("UTF-8");
 
+  private static final int PIPE_SIZE = 256 * 1024;
+
   /**
    * Packages the content of the path as a tarball
    * 
@@ -93,43 +100,11 @@ public class Packaging {
    */
   public static File packageFile(Path root, String destination, Path... additional) {
     try {
-      final Set<String> includes = Arrays
-          .stream(additional)
-          .map(p -> p.toAbsolutePath().toString())
-          .collect(Collectors.toSet());
+      final Set<String> includes = toIncludes(additional);
 
       File tempFile = Files.createTempFile(Paths.get(DEFAULT_TEMP_DIR), DOCKER_PREFIX, BZIP2_SUFFIX).toFile();
       try (final TarArchiveOutputStream tout = Packaging.buildTarStream(tempFile)) {
-        tout.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
-        tout.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
-        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
-          @Override
-          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-            return FileVisitResult.CONTINUE;
-          }
-
-          @Override
-          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-            String absolutePath = file.toAbsolutePath().toString();
-            if (!shouldInclude(absolutePath, includes)) {
-              return FileVisitResult.CONTINUE;
-            }
-            final Path relativePath = root.relativize(file);
-            final boolean hasDestinationPath = destination != null && !destination.isEmpty();
-            final TarArchiveEntry entry = hasDestinationPath
-                ? new TarArchiveEntry(destination + File.separator + file.toFile())
-                : new TarArchiveEntry(file.toFile());
-            entry.setName(hasDestinationPath ? destination + File.separator + relativePath.toString()
-                : relativePath.toString());
-            entry.setMode(TarArchiveEntry.DEFAULT_FILE_MODE);
-            if (!file.toFile().isDirectory() && file.toFile().canExecute()) {
-              entry.setMode(entry.getMode() | 0755);
-            }
-            entry.setSize(attrs.size());
-            Packaging.putTarEntry(tout, entry, file);
-            return FileVisitResult.CONTINUE;
-          }
-        });
+        writeTarEntries(tout, root, destination, includes);
         tout.flush();
       }
       return tempFile;
@@ -139,6 +114,82 @@ public class Packaging {
     }
   }
 
+  /**
+   * Streams the content of the path as a tarball, without writing the tarball to disk. The tarball is written
+   * into a fixed size pipe by a separate thread, and read from the returned stream. The contents are still copied
+   * through the pipe's buffer, so this saves the disk round trip of {@link #packageFile(Path, Path...)} rather than
+   * any copying in memory.
+   *
+   * If writing the tarball fails, reading from the returned stream will throw an {@code IOException} rather than
+   * ending early with a truncated tarball.
+   *
+   * @param root The path of the file or directory to package.
+   * @param additional Additional entries to add to the tarball.
+   * @return a stream of the tarball contents. The caller must close it.
+   */
+  public static InputStream streamFile(Path root, Path... additional) {
+    final Set<String> includes = toIncludes(additional);
+    final TarPipe pipe = new TarPipe();
+    Thread writer = new Thread(() -> {
+      // The end is only signalled once closing the tar stream has written the trailer, or failed
+      // The tar stream writes whole blocks, so the pipe is not buffered
+      try (final TarArchiveOutputStream tout = buildTarStream(pipe.out)) {
+        writeTarEntries(tout, root, null, includes);
+        tout.flush();
+      } catch (IOException | RuntimeException | Error e) {
+        // Always end the pipe, otherwise the reader waits forever
+        pipe.end(e);
+        if (e instanceof Error) {
+          throw (Error) e;
+        }
+        return;
+      }
+      pipe.end(null);
+    }, "packaging-" + root.getFileName());
+    writer.setDaemon(true);
+    writer.start();
+    return pipe.in;
+  }
+
+  private static Set<String> toIncludes(Path... additional) {
+    return Arrays
+        .stream(additional)
+        .map(p -> p.toAbsolutePath().toString())
+        .collect(Collectors.toSet());
+  }
+
+  private static void writeTarEntries(final TarArchiveOutputStream tout, final Path root, final String destination,
+      final Set<String> includes) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        String absolutePath = file.toAbsolutePath().toString();
+        if (!shouldInclude(absolutePath, includes)) {
+          return FileVisitResult.CONTINUE;
+        }
+        final Path relativePath = root.relativize(file);
+        final boolean hasDestinationPath = destination != null && !destination.isEmpty();
+        final TarArchiveEntry entry = hasDestinationPath
+            ? new TarArchiveEntry(destination + File.separator + file.toFile())
+            : new TarArchiveEntry(file.toFile());
+        entry.setName(hasDestinationPath ? destination + File.separator + relativePath.toString()
+            : relativePath.toString());
+        entry.setMode(TarArchiveEntry.DEFAULT_FILE_MODE);
+        if (!file.toFile().isDirectory() && file.toFile().canExecute()) {
+          entry.setMode(entry.getMode() | 0755);
+        }
+        entry.setSize(attrs.size());
+        Packaging.putTarEntry(tout, entry, file);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
   public static void putTarEntry(TarArchiveOutputStream tarArchiveOutputStream, TarArchiveEntry tarArchiveEntry,
       Path inputPath) throws IOException {
     tarArchiveEntry.setSize(Files.size(inputPath));
@@ -151,7 +202,11 @@ public class Packaging {
     FileOutputStream fout = new FileOutputStream(outputPath);
     BufferedOutputStream bout = new BufferedOutputStream(fout);
     //BZip2CompressorOutputStream bzout = new BZip2CompressorOutputStream(bout);
-    TarArchiveOutputStream stream = new TarArchiveOutputStream(bout);
+    return buildTarStream(bout);
+  }
+
+  public static TarArchiveOutputStream buildTarStream(OutputStream out) {
+    TarArchiveOutputStream stream = new TarArchiveOutputStream(out);
     stream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
     stream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
 
@@ -191,6 +246,134 @@ public class Packaging {
     return false;
   }
 
+  /**
+   * Hands the tarball from the writer thread to the reader through a fixed ring buffer. This is used rather than
+   * PipedInputStream, which waits inside synchronized methods and so pins the carrier thread when the reader is a
+   * virtual thread.
+   */
+  private static class TarPipe {
+    private final byte[] buffer = new byte[PIPE_SIZE];
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // Guarded by lock
+    private int readPos;
+    private int count;
+    private boolean ended;
+    private boolean readerClosed;
+    private Throwable failure;
+
+    final OutputStream out = new OutputStream() {
+      private boolean closed;
+
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+          throw new IOException("Pipe closed");
+        }
+        lock.lock();
+        try {
+          while (len > 0) {
+            while (count == buffer.length && !readerClosed) {
+              notFull.await();
+            }
+            if (readerClosed) {
+              throw new IOException("Pipe closed");
+            }
+            int writePos = (readPos + count) % buffer.length;
+            int written = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+            System.arraycopy(b, off, buffer, writePos, written);
+            count += written;
+            off += written;
+            len -= written;
+            notEmpty.signal();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        } finally {
+          lock.unlock();
+        }
+      }
+
+      @Override
+      public void close() {
+        closed = true;
+      }
+    };
+
+    final InputStream in = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        lock.lock();
+        try {
+          while (count == 0 && !ended) {
+            notEmpty.await();
+          }
+          if (count == 0) {
+            if (failure != null) {
+              throw new IOException("Error creating tarball: " + failure.getMessage(), failure);
+            }
+            return -1;
+          }
+          int read = Math.min(len, Math.min(count, buffer.length - readPos));
+          System.arraycopy(buffer, readPos, b, off, read);
+          readPos = (readPos + read) % buffer.length;
+          count -= read;
+          notFull.signal();
+          return read;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        } finally {
+          lock.unlock();
+        }
+      }
+
+      @Override
+      public void close() {
+        lock.lock();
+        try {
+          // Unblock the writer
+          readerClosed = true;
+          notFull.signal();
+        } finally {
+          lock.unlock();
+        }
+      }
+    };
+
+    /**
+     * Signals the end of the tarball to the reader
+     *
+     * @param failure the reason writing the tarball failed, or {@code null} if it succeeded
+     */
+    void end(Throwable failure) {
+      lock.lock();
+      try {
+        this.failure = failure;
+        ended = true;
+        notEmpty.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
   public static class TarDirWalker extends SimpleFileVisitor<Path> {
     private Path basePath;
     private TarArchiveOutputStream tarArchiveOutputStream;
@@ -0,0 +1,82 @@
+package org.wildfly.managed.openshift;
+
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.okhttp.OkHttpClientFactory;
+import io.fabric8.openshift.client.DefaultOpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftConfig;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import javax.enterprise.inject.Disposes;
+import javax.enterprise.inject.Produces;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+
+/**
+ * Replaces the default OpenShift client with one which creates a span for each call to the OpenShift API. Calls are
+ * only traced when they are part of a trace already, e.g. a REST request or a deploy job, so that the informers
+ * don't add a new trace for each list and watch.
+ */
+@Singleton
+public class TracingOpenShiftClientProducer {
+
+    @Inject
+    Tracer tracer;
+
+    @Produces
+    @Singleton
+    OpenShiftClient openShiftClient(Config config) {
+        OpenShiftConfig openShiftConfig = new OpenShiftConfig(config);
+        openShiftConfig.setHttp2Disable(config.isHttp2Disable());
+        OkHttpClientFactory httpClientFactory = new OkHttpClientFactory() {
+            @Override
+            protected void additionalConfig(OkHttpClient.Builder builder) {
+                builder.addInterceptor(new TracingInterceptor());
+            }
+        };
+        return new DefaultOpenShiftClient(httpClientFactory.createHttpClient(openShiftConfig), openShiftConfig);
+    }
+
+    void close(@Disposes OpenShiftClient openShiftClient) {
+        openShiftClient.close();
+    }
+
+    private class TracingInterceptor implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            if (!Span.current().getSpanContext().isValid()) {
+                return chain.proceed(request);
+            }
+            Span span = tracer.spanBuilder("OpenShift " + request.method())
+                    .setSpanKind(SpanKind.CLIENT)
+                    .setAttribute(SemanticAttributes.HTTP_METHOD, request.method())
+                    .setAttribute(SemanticAttributes.HTTP_URL, request.url().toString())
+                    .startSpan();
+            try (Scope ignored = span.makeCurrent()) {
+                Response response = chain.proceed(request);
+                span.setAttribute(SemanticAttributes.HTTP_STATUS_CODE, response.code());
+                if (response.code() >= 400) {
+                    span.setStatus(StatusCode.ERROR);
+                }
+                return response;
+            } catch (IOException | RuntimeException e) {
+                span.recordException(e);
+                span.setStatus(StatusCode.ERROR);
+                throw e;
+            } finally {
+                span.end();
+            }
+        }
+    }
+}
@@ -4,28 +4,53 @@ import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
 import io.quarkus.hibernate.orm.panache.PanacheQuery;
 import io.quarkus.hibernate.orm.panache.PanacheRepository;
 import io.quarkus.panache.common.Parameters;
+import org.hibernate.Session;
+import org.hibernate.annotations.QueryHints;
+import org.hibernate.query.NativeQuery;
+import org.jboss.logging.Logger;
 import org.wildfly.managed.ConfigFileInspection;
 import org.wildfly.managed.ServerException;
 import org.wildfly.managed.common.model.AppArchive;
 import org.wildfly.managed.common.model.Application;
 import org.wildfly.managed.common.model.DatabaseConnection;
+import org.wildfly.managed.common.model.DeployJob;
 import org.wildfly.managed.common.model.DeploymentRecord;
+import org.wildfly.managed.common.model.DeploymentStats;
 import org.wildfly.managed.common.value.AppState;
+import org.wildfly.managed.deploy.BuildLimiter;
+import org.wildfly.managed.deploy.DeployMetrics;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.Transactional;
 import javax.ws.rs.core.Response;
 import java.sql.Date;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @ApplicationScoped
 public class ApplicationRepo implements PanacheRepository<Application> {
+    private static final Logger log = Logger.getLogger(ApplicationRepo.class);
+
+    @Inject
+    DeployMetrics deployMetrics;
+
+    @Inject
+    BuildLimiter buildLimiter;
+
+    @Inject
+    TransactionSynchronizationRegistry transactionSynchronizationRegistry;
 
     @Transactional
     public Application create(Application application) {
@@ -35,13 +60,70 @@ public class ApplicationRepo implements PanacheRepository<Application> {
 
     @Transactional
     public Application findByName(String name) {
-        Application application = find("name", name).firstResult();
+        // Look up by natural id, so that the second-level cache is used
+        Application application = getEntityManager().unwrap(Session.class)
+                .bySimpleNaturalId(Application.class)
+                .load(name);
         if (application == null) {
             throw new ServerException(Response.Status.NOT_FOUND, "No application called: " + name);
         }
         return application;
     }
 
+    /**
+     * Lists the applications, sorted by name, for views which only need the summary fields
+     */
+    @Transactional
+    public List<ApplicationSummary> listSummaries() {
+        return getEntityManager().createQuery(
+                "SELECT new org.wildfly.managed.repo.ApplicationSummary(a.name, a.lastConfigChange, a.lastArchiveChange) " +
+                        "FROM Application a ORDER BY a.name", ApplicationSummary.class)
+                .setHint(QueryHints.CACHEABLE, true)
+                .getResultList();
+    }
+
+    /**
+     * Loads everything needed to deploy an application. This uses the same three queries however many archives and
+     * database connections the application has.
+     *
+     * @param appName the application name
+     * @return the snapshot
+     */
+    @Transactional
+    public ApplicationSnapshot loadSnapshot(String appName) {
+        // Archives and connections are both bags, which Hibernate can't fetch in the same query. The second query
+        // initialises the connections of the application already in the persistence context.
+        List<Application> found = getEntityManager().createQuery(
+                "SELECT DISTINCT a FROM Application a LEFT JOIN FETCH a.appArchives WHERE a.name = :name", Application.class)
+                .setParameter("name", appName)
+                .getResultList();
+        if (found.isEmpty()) {
+            throw new ServerException(Response.Status.NOT_FOUND, "No application called: " + appName);
+        }
+        Application application = found.get(0);
+        getEntityManager().createQuery(
+                "SELECT DISTINCT a FROM Application a LEFT JOIN FETCH a.dbConnections WHERE a = :application", Application.class)
+                .setParameter("application", application)
+                .getResultList();
+        // The config contents are lazy, so load them with a projection rather than one query per lazy group
+        Object[] configs = getEntityManager().createQuery(
+                "SELECT a.serverConfigXml, a.serverInitYml, a.serverInitCli FROM Application a WHERE a = :application", Object[].class)
+                .setParameter("application", application)
+                .getSingleResult();
+
+        List<AppArchive> archives = new ArrayList<>(application.appArchives);
+        archives.sort(Comparator.comparing(a -> a.fileName));
+        List<DatabaseConnection> connections = new ArrayList<>(application.dbConnections);
+        connections.sort(Comparator.comparing(c -> c.jndiName));
+        getEntityManager().detach(application);
+
+        return new ApplicationSnapshot(
+                application.name,
+                archives,
+                connections,
+                new ApplicationConfigs((String) configs[0], (String) configs[1], (String) configs[2]));
+    }
+
     @Transactional
     public Application getApplication(String name, boolean verbose) {
         Application application = findByName(name);
@@ -59,27 +141,40 @@ public class ApplicationRepo implements PanacheRepository<Application> {
         return application;
     }
 
+    /**
+     * Deletes the application
+     *
+     * @param name the name of the application
+     * @return the digests of the application's archives, which can be released from the archive store
+     */
     @Transactional
-    public void delete(String name) {
+    public List<String> delete(String name) {
         // For validation, will throw an error if not found
         Application app = findByName(name);
 
         // We don't need to do this here, since if we reach this point we have removed it on OpenShift
         //checkCanModifyApplication(app);
 
-        for (AppArchive archive : app.appArchives) {
-            archive.application = null;
-            archive.delete();
-        }
-        for (DeploymentRecord deploymentRecord : app.deploymentRecords) {
-            deploymentRecord.application = null;
-            deploymentRecord.delete();
-        }
-        for (DatabaseConnection connection : app.dbConnections) {
-            connection.application = null;
-            connection.delete();
-        }
-        delete("name", name);
+        // Delete the children with one statement per table, rather than loading and deleting them one at a time
+        List<String> digests = getEntityManager().createQuery(
+                "SELECT a.digest FROM AppArchive a WHERE a.application = :application", String.class)
+                .setParameter("application", app)
+                .getResultList();
+        AppArchive.delete("application", app);
+        DatabaseConnection.delete("application", app);
+        DeploymentRecord.delete("application", app);
+        DeploymentStats.delete("application", app);
+        // Bulk deletes don't cascade to element collections, so remove the job stages first
+        getEntityManager().createNativeQuery(
+                "DELETE FROM DeployJob_stages WHERE DeployJob_id IN (SELECT id FROM DeployJob WHERE application_id = :applicationId)")
+                .unwrap(NativeQuery.class)
+                // Otherwise Hibernate evicts the whole second-level cache, since it doesn't know what the query touches
+                .addSynchronizedQuerySpace("DeployJob_stages")
+                .setParameter("applicationId", app.id)
+                .executeUpdate();
+        DeployJob.delete("application", app);
+        delete(app);
+        return digests;
     }
 
     @Transactional
@@ -98,7 +193,37 @@ public class ApplicationRepo implements PanacheRepository<Application> {
 
 
     @Transactional
-    public void createApplicationArchive(Application application, String fileName, ConfigFileInspection configFileInspection) {
+    public AppArchive findArchive(String appName, String fileName) {
+        Application application = findByName(appName);
+        return findByApplicationAndName(application, fileName);
+    }
+
+    @Transactional
+    public boolean isArchiveDigestReferenced(String digest) {
+        return AppArchive.count("digest", digest) > 0;
+    }
+
+    /**
+     * Checks that an uploaded archive could be added to an application, or replace one of its archives, before
+     * anything is linked into the application directory. The same checks are made again when the archive is recorded,
+     * since things may have changed in the meantime.
+     */
+    @Transactional
+    public void checkCanStoreArchive(Application application, String fileName, ConfigFileInspection configFileInspection) {
+        application = findByName(application.name);
+
+        checkCanModifyApplication(application);
+
+        AppArchive appArchive = new AppArchive();
+        appArchive.fileName = fileName;
+        appArchive.serverConfigXml = configFileInspection.isServerConfigXml();
+        appArchive.serverInitCli = configFileInspection.isServerInitCli();
+        appArchive.serverInitYml = configFileInspection.isServerInitYml();
+        checkNoDuplicateConfigFiles(application, appArchive);
+    }
+
+    @Transactional
+    public void createApplicationArchive(Application application, String fileName, String digest, ConfigFileInspection configFileInspection) {
         application = findByName(application.name);
 
         checkCanModifyApplication(application);
@@ -106,6 +231,7 @@ public class ApplicationRepo implements PanacheRepository<Application> {
         AppArchive appArchive = new AppArchive();
         appArchive.application = application;
         appArchive.fileName = fileName;
+        appArchive.digest = digest;
         appArchive.serverConfigXml = configFileInspection.isServerConfigXml();
         appArchive.serverInitCli = configFileInspection.isServerInitCli();
         appArchive.serverInitYml = configFileInspection.isServerInitYml();
@@ -123,25 +249,33 @@ public class ApplicationRepo implements PanacheRepository<Application> {
         appArchive.persist();
     }
 
+    /**
+     * Updates an archive after its contents have been replaced
+     *
+     * @return the digest of the previous contents of the archive
+     */
     @Transactional
-    public void updateApplicationArchive(Application application, String fileName, ConfigFileInspection configFileInspection) {
-        System.out.println("Updating " + fileName);
+    public String updateApplicationArchive(Application application, String fileName, String digest, ConfigFileInspection configFileInspection) {
+        log.debugf("Updating archive %s of %s", fileName, application.name);
         application = findByName(application.name);
 
         checkCanModifyApplication(application);
 
         AppArchive found = findByApplicationAndName(application, fileName);
+        String previousDigest;
         if (found == null) {
             // TODO if not working we should undo the file copy in the caller
             throw new ServerException(Response.Status.NOT_FOUND, "No existing application called " + fileName);
         } else {
+            previousDigest = found.digest;
+            found.digest = digest;
             found.serverConfigXml = configFileInspection.isServerConfigXml();
             found.serverInitCli = configFileInspection.isServerInitCli();
             found.serverInitYml = configFileInspection.isServerInitYml();
         }
         checkNoDuplicateConfigFiles(application, found);
         application.lastArchiveChange = LocalDateTime.now();
-        System.out.println("--- done");
+        return previousDigest;
     }
 
     private void checkNoDuplicateConfigFiles(Application application, AppArchive archive) {
@@ -163,8 +297,13 @@ public class ApplicationRepo implements PanacheRepository<Application> {
         }
     }
 
+    /**
+     * Deletes an archive from an application
+     *
+     * @return the digest of the deleted archive
+     */
     @Transactional
-    public void deleteApplicationArchive(Application application, String fileName) {
+    public String deleteApplicationArchive(Application application, String fileName) {
         application = findByName(application.name);
         checkCanModifyApplication(application);
         AppArchive appArchive = findByApplicationAndName(application, fileName);
@@ -173,6 +312,7 @@ public class ApplicationRepo implements PanacheRepository<Application> {
             appArchive.delete();
             appArchive.application = null;
             application.lastArchiveChange = LocalDateTime.now();
+            return appArchive.digest;
         } else {
             throw new ServerException(Response.Status.NOT_FOUND, "No existing archive called " + fileName);
         }
@@ -184,16 +324,12 @@ public class ApplicationRepo implements PanacheRepository<Application> {
 
         String config = null;
         if (type.equals("xml")) {
-            System.out.println("read xml!");
             config = application.serverConfigXml;
         } else if (type.equals("cli")) {
-            System.out.println("read cli!");
             config = application.serverInitCli;
         } else if (type.equals("yml")) {
-            System.out.println("read yml!");
             config = application.serverInitYml;
         }
-        System.out.println("---> config");
         return config;
     }
 
@@ -212,17 +348,17 @@ public class ApplicationRepo implements PanacheRepository<Application> {
 
         checkCanModifyApplication(application);
 
-        System.out.println("Setting Contents: " + contents);
+        if (log.isDebugEnabled()) {
+            // Don't log the contents, since they may contain credentials
+            log.debugf("Setting %s config of %s, %d characters", type, appName, contents == null ? 0 : contents.length());
+        }
         if (type.equals("xml")) {
-            System.out.println("xml!");
             application.serverConfigXml = contents;
             application.hasServerConfigXml = contents != null;
         } else if (type.equals("cli")) {
-            System.out.println("cli!");
             application.serverInitCli = contents;
             application.hasServerInitCli = contents != null;
         } else if (type.equals("yml")) {
-            System.out.println("yml!");
             application.serverInitYml = contents;
             application.hasServerInitYml = contents != null;
         }
@@ -235,20 +371,16 @@ public class ApplicationRepo implements PanacheRepository<Application> {
 
         checkCanModifyApplication(application);
 
-        System.out.println("Deleting Config: ");
         if (type.equals("xml")) {
-            System.out.println("xml!");
             // Lazy load field to make clearing it take effect
             String tmp = application.serverConfigXml;
             application.serverConfigXml = null;
             application.hasServerConfigXml = false;
         } else if (type.equals("cli")) {
-            System.out.println("cli!");
             String tmp = application.serverInitCli;
             application.serverInitCli = null;
             application.hasServerInitCli = false;
         } else if (type.equals("yml")) {
-            System.out.println("yml!");
             String tmp = application.serverInitYml;
             application.serverInitYml = null;
             application.hasServerInitYml = false;
@@ -266,7 +398,7 @@ public class ApplicationRepo implements PanacheRepository<Application> {
     }
 
     @Transactional
-    public void recordDeploymentStart(String appName, boolean cancelExisting) {
+    public void recordDeploymentStart(String appName, boolean cancelExisting, String fingerprint, String archiveDigests) {
         if (getRunningDeployment(appName) != null) {
             recordDeploymentEnd(appName, DeploymentRecord.Status.CANCELLED);
         }
@@ -277,11 +409,45 @@ public class ApplicationRepo implements PanacheRepository<Application> {
         }
         DeploymentRecord deploymentRecord = new DeploymentRecord();
         deploymentRecord.startTime = LocalDateTime.now();
+        deploymentRecord.fingerprint = fingerprint;
+        deploymentRecord.archiveDigests = archiveDigests;
+        application.deploymentRecords.add(deploymentRecord);
+        deploymentRecord.application = application;
+        deploymentRecord.persist();
+    }
+
+    /**
+     * Records a deployment which did not need a build, since nothing changed since the last completed deployment
+     */
+    @Transactional
+    public void recordUnchangedDeployment(String appName, String fingerprint, String archiveDigests) {
+        if (getRunningDeployment(appName) != null) {
+            recordDeploymentEnd(appName, DeploymentRecord.Status.CANCELLED);
+        }
+        Application application = findByName(appName);
+        DeploymentRecord deploymentRecord = new DeploymentRecord();
+        deploymentRecord.startTime = LocalDateTime.now();
+        deploymentRecord.endTime = deploymentRecord.startTime;
+        deploymentRecord.status = DeploymentRecord.Status.COMPLETED;
+        deploymentRecord.fingerprint = fingerprint;
+        deploymentRecord.archiveDigests = archiveDigests;
+        deployMetrics.recordDeploymentSkipped();
         application.deploymentRecords.add(deploymentRecord);
         deploymentRecord.application = application;
         deploymentRecord.persist();
     }
 
+    @Transactional
+    public DeploymentRecord getLastCompletedDeployment(String appName) {
+        Application application = findByName(appName);
+        return DeploymentRecord.<DeploymentRecord>find(
+                "application=:application AND status=:status ORDER BY startTime DESC",
+                Parameters
+                        .with("application", application)
+                        .and("status", DeploymentRecord.Status.COMPLETED)
+        ).firstResult();
+    }
+
     @Transactional
     public void recordTriggeredBuild(String appName) {
         DeploymentRecord record = getRunningDeployment(appName);
@@ -295,6 +461,23 @@ public class ApplicationRepo implements PanacheRepository<Application> {
         if (record != null) {
             record.endTime = LocalDateTime.now();
             record.status = status;
+            deployMetrics.recordDeploymentEnd(status, Duration.between(record.startTime, record.endTime));
+            if (record.buildTriggered) {
+                // Give the build slot back once the end is committed, so that a deploy woken up by it does not still
+                // see this deployment as running
+                transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+
+                    @Override
+                    public void afterCompletion(int txStatus) {
+                        if (txStatus == Status.STATUS_COMMITTED) {
+                            buildLimiter.release(appName);
+                        }
+                    }
+                });
+            }
         }
     }
 
@@ -317,7 +500,7 @@ public class ApplicationRepo implements PanacheRepository<Application> {
                     Parameters
                             .with("application", application)).firstResult();
         } catch (Exception e) {
-            e.printStackTrace();
+            log.errorf(e, "Error looking up the running deployment of %s", application.name);
             return null;
         }
         return record;
@@ -338,6 +521,7 @@ public class ApplicationRepo implements PanacheRepository<Application> {
         return DeploymentRecord.find("endTime IS NULL").list();
     }
 
+    @Transactional
     public AppState.StageState getStageStatus(String appName) {
         Application application = findByName(appName);
 
@@ -347,10 +531,11 @@ public class ApplicationRepo implements PanacheRepository<Application> {
                 Parameters
                         .with("application", application)
                         .and("status", DeploymentRecord.Status.COMPLETED)
-                );
+                ).withHint(QueryHints.CACHEABLE, true);
 
-        if (query.count() > 0) {
-            LocalDateTime lastTime = query.firstResult().startTime;
+        DeploymentRecord last = query.firstResult();
+        if (last != null) {
+            LocalDateTime lastTime = last.startTime;
             if (lastTime.isBefore(application.lastArchiveChange) || lastTime.isBefore(application.lastConfigChange)) {
                 return AppState.StageState.STAGED_CHANGES;
             }
@@ -358,6 +543,33 @@ public class ApplicationRepo implements PanacheRepository<Application> {
         return AppState.StageState.UP_TO_DATE;
     }
 
+    @Transactional
+    public Map<String, AppState.StageState> getStageStatuses(Collection<ApplicationSummary> applications) {
+        // Find the last successful deployment of each application in one query
+        List<Object[]> rows = getEntityManager().createQuery(
+                "SELECT d.application.name, MAX(d.startTime) FROM DeploymentRecord d " +
+                        "WHERE d.status=:status GROUP BY d.application.name", Object[].class)
+                .setParameter("status", DeploymentRecord.Status.COMPLETED)
+                .setHint(QueryHints.CACHEABLE, true)
+                .getResultList();
+        Map<String, LocalDateTime> lastTimes = new HashMap<>();
+        for (Object[] row : rows) {
+            lastTimes.put((String) row[0], (LocalDateTime) row[1]);
+        }
+
+        Map<String, AppState.StageState> stageStates = new HashMap<>();
+        for (ApplicationSummary application : applications) {
+            LocalDateTime lastTime = lastTimes.get(application.getName());
+            if (lastTime != null &&
+                    (lastTime.isBefore(application.getLastArchiveChange()) || lastTime.isBefore(application.getLastConfigChange()))) {
+                stageStates.put(application.getName(), AppState.StageState.STAGED_CHANGES);
+            } else {
+                stageStates.put(application.getName(), AppState.StageState.UP_TO_DATE);
+            }
+        }
+        return stageStates;
+    }
+
     @Transactional
     public void createDatabaseConnection(String appName, DatabaseConnection dbConn) {
         if (dbConn.jndiName == null || (!dbConn.jndiName.startsWith("java:/") && !dbConn.jndiName.startsWith("java:jboss/"))) {
@@ -0,0 +1,49 @@
+package org.wildfly.managed.repo;
+
+import org.wildfly.managed.common.model.AppArchive;
+import org.wildfly.managed.common.model.DatabaseConnection;
+
+import java.util.List;
+
+/**
+ * Everything about an application needed to deploy it, loaded up front with a fixed number of queries by
+ * {@link ApplicationRepo#loadSnapshot(String)}. The entities are detached.
+ */
+public class ApplicationSnapshot {
+    private final String name;
+    private final List<AppArchive> archives;
+    private final List<DatabaseConnection> databaseConnections;
+    private final ApplicationConfigs configs;
+
+    ApplicationSnapshot(String name, List<AppArchive> archives, List<DatabaseConnection> databaseConnections, ApplicationConfigs configs) {
+        this.name = name;
+        this.archives = archives;
+        this.databaseConnections = databaseConnections;
+        this.configs = configs;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the archives, sorted by file name
+     */
+    public List<AppArchive> getArchives() {
+        return archives;
+    }
+
+    /**
+     * @return the database connections, sorted by JNDI name
+     */
+    public List<DatabaseConnection> getDatabaseConnections() {
+        return databaseConnections;
+    }
+
+    /**
+     * @return the application's own config files. Entries are {@code null} if not set.
+     */
+    public ApplicationConfigs getConfigs() {
+        return configs;
+    }
+}
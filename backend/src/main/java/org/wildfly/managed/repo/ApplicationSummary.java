@@ -0,0 +1,30 @@
+package org.wildfly.managed.repo;
+
+import java.time.LocalDateTime;
+
+/**
+ * The fields of an application needed by the list views, loaded with a projection query rather than as entities.
+ */
+public class ApplicationSummary {
+    private final String name;
+    private final LocalDateTime lastConfigChange;
+    private final LocalDateTime lastArchiveChange;
+
+    public ApplicationSummary(String name, LocalDateTime lastConfigChange, LocalDateTime lastArchiveChange) {
+        this.name = name;
+        this.lastConfigChange = lastConfigChange;
+        this.lastArchiveChange = lastArchiveChange;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LocalDateTime getLastConfigChange() {
+        return lastConfigChange;
+    }
+
+    public LocalDateTime getLastArchiveChange() {
+        return lastArchiveChange;
+    }
+}
@@ -0,0 +1,37 @@
+package org.wildfly.managed.repo;
+
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+
+/**
+ * Creates the indexes which can't be expressed with JPA annotations. The plain indexes are on the entities, and are
+ * created by the schema generation.
+ */
+@ApplicationScoped
+public class DatabaseIndexes {
+
+    @Inject
+    EntityManager entityManager;
+
+    @ConfigProperty(name = "quarkus.datasource.db-kind")
+    String dbKind;
+
+    @Transactional
+    void createIndexes(@Observes StartupEvent event) {
+        if (!dbKind.equals("postgresql")) {
+            return;
+        }
+        // The running deployments are a tiny part of the history, so only index those. This is used by
+        // getAllRunningDeployments(), and by getRunningDeployment() which is checked on every modification
+        entityManager.createNativeQuery(
+                "CREATE INDEX IF NOT EXISTS deploymentrecord_running_idx " +
+                        "ON deploymentrecord (application_id) WHERE endtime IS NULL")
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,60 @@
+package org.wildfly.managed.repo;
+
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.wildfly.managed.common.model.DeploymentRecord;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.interceptor.Interceptor;
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.List;
+
+/**
+ * Migrates the data of existing databases for mapping changes which the schema update does not handle. This runs
+ * before the other startup observers, since they may load the affected entities.
+ */
+@ApplicationScoped
+public class DatabaseMigrations {
+    private static final Logger log = Logger.getLogger(DatabaseMigrations.class);
+
+    @Inject
+    EntityManager entityManager;
+
+    @ConfigProperty(name = "quarkus.datasource.db-kind")
+    String dbKind;
+
+    @Transactional
+    void migrate(@Observes @Priority(Interceptor.Priority.LIBRARY_BEFORE) StartupEvent event) {
+        if (!dbKind.equals("postgresql")) {
+            return;
+        }
+        migrateDeploymentRecordStatus();
+    }
+
+    /**
+     * DeploymentRecord.status used to be mapped by ordinal. The schema update keeps the existing integer column, so
+     * convert it to the names
+     */
+    void migrateDeploymentRecordStatus() {
+        List<?> types = entityManager.createNativeQuery(
+                "SELECT data_type FROM information_schema.columns " +
+                        "WHERE table_name = 'deploymentrecord' AND column_name = 'status'")
+                .getResultList();
+        if (types.isEmpty() || !"integer".equals(types.get(0))) {
+            return;
+        }
+        log.info("Converting the status of the deployment records from ordinals to names");
+        StringBuilder cases = new StringBuilder();
+        for (DeploymentRecord.Status status : DeploymentRecord.Status.values()) {
+            cases.append(" WHEN ").append(status.ordinal()).append(" THEN '").append(status.name()).append("'");
+        }
+        entityManager.createNativeQuery(
+                "ALTER TABLE deploymentrecord ALTER COLUMN status TYPE VARCHAR(255) USING CASE status" + cases + " END")
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,178 @@
+package org.wildfly.managed.repo;
+
+import io.quarkus.hibernate.orm.panache.PanacheRepository;
+import io.quarkus.panache.common.Parameters;
+import org.wildfly.managed.ServerException;
+import org.wildfly.managed.common.model.Application;
+import org.wildfly.managed.common.model.DeployJob;
+import org.wildfly.managed.common.model.DeployJobStage;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+import javax.ws.rs.core.Response;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@ApplicationScoped
+public class DeployJobRepo implements PanacheRepository<DeployJob> {
+
+    @Inject
+    ApplicationRepo applicationRepo;
+
+    @Transactional
+    public DeployJob create(String appName, boolean force, boolean refresh) {
+        return createJob(appName, force, refresh);
+    }
+
+    /**
+     * Creates queued jobs for several applications. Either all the jobs are created, or none are, e.g. if one of the
+     * applications does not exist.
+     *
+     * @return the jobs, in the order of the application names
+     */
+    @Transactional
+    public List<DeployJob> createAll(List<String> appNames, boolean force, boolean refresh) {
+        List<DeployJob> jobs = new ArrayList<>();
+        for (String appName : appNames) {
+            jobs.add(createJob(appName, force, refresh));
+        }
+        return jobs;
+    }
+
+    private DeployJob createJob(String appName, boolean force, boolean refresh) {
+        Application application = applicationRepo.findByName(appName);
+        DeployJob job = new DeployJob();
+        job.application = application;
+        job.force = force;
+        job.refresh = refresh;
+        job.status = DeployJob.Status.QUEUED;
+        job.queuedTime = LocalDateTime.now();
+        persist(job);
+        return job;
+    }
+
+    @Transactional
+    public DeployJob getJob(String appName, long jobId) {
+        DeployJob job = findById(jobId);
+        if (job == null || !job.application.name.equals(appName)) {
+            throw new ServerException(Response.Status.NOT_FOUND, "No deploy job " + jobId + " for application " + appName);
+        }
+        return job;
+    }
+
+    /**
+     * Marks a queued job as running
+     *
+     * @param jobId the job id
+     * @return the job, or {@code null} if it is no longer queued, e.g. since it was cancelled
+     */
+    @Transactional
+    public DeployJob markRunning(long jobId) {
+        DeployJob job = findById(jobId);
+        if (job == null || job.status != DeployJob.Status.QUEUED) {
+            return null;
+        }
+        job.status = DeployJob.Status.RUNNING;
+        if (job.startTime == null) {
+            // Not when retrying a job which had to wait
+            job.startTime = LocalDateTime.now();
+        }
+        return job;
+    }
+
+    /**
+     * Puts a running job back in the queue, to wait for something before it is retried
+     *
+     * @param jobId the job id
+     * @param stageName the name of the stage to record the wait as
+     * @return the updated job
+     */
+    @Transactional
+    public DeployJob requeue(long jobId, String stageName) {
+        DeployJob job = startStage(jobId, stageName);
+        job.status = DeployJob.Status.QUEUED;
+        return job;
+    }
+
+    /**
+     * Ends the current stage of a running job, if any, and starts the next one
+     *
+     * @param jobId the job id
+     * @param stageName the name of the stage
+     * @return the updated job
+     */
+    @Transactional
+    public DeployJob startStage(long jobId, String stageName) {
+        DeployJob job = findById(jobId);
+        LocalDateTime now = LocalDateTime.now();
+        endCurrentStage(job, now);
+        DeployJobStage stage = new DeployJobStage();
+        stage.name = stageName;
+        stage.startTime = now;
+        job.stages.add(stage);
+        return job;
+    }
+
+    @Transactional
+    public DeployJob finish(long jobId, DeployJob.Status status, String buildName, String error) {
+        DeployJob job = findById(jobId);
+        LocalDateTime now = LocalDateTime.now();
+        endCurrentStage(job, now);
+        job.status = status;
+        job.endTime = now;
+        job.buildName = buildName;
+        if (error != null && error.length() > 2048) {
+            error = error.substring(0, 2048);
+        }
+        job.error = error;
+        return job;
+    }
+
+    @Transactional
+    public DeployJob findJob(long jobId) {
+        return findById(jobId);
+    }
+
+    /**
+     * Cancels the jobs for an application which have not started yet
+     *
+     * @param appName the application name
+     */
+    @Transactional
+    public void cancelQueued(String appName) {
+        Application application = applicationRepo.findByName(appName);
+        update("status = :cancelled, endTime = :now WHERE application = :application AND status = :queued",
+                Parameters
+                        .with("cancelled", DeployJob.Status.CANCELLED)
+                        .and("now", LocalDateTime.now())
+                        .and("application", application)
+                        .and("queued", DeployJob.Status.QUEUED));
+    }
+
+    /**
+     * Called on startup to fail the jobs which were running when the server stopped.
+     *
+     * @return the jobs which were still queued, in the order they were queued
+     */
+    @Transactional
+    public List<DeployJob> recoverJobs() {
+        for (DeployJob job : list("status", DeployJob.Status.RUNNING)) {
+            endCurrentStage(job, LocalDateTime.now());
+            job.status = DeployJob.Status.FAILED;
+            job.endTime = LocalDateTime.now();
+            job.error = "The server was restarted while the deploy was running";
+        }
+        return list("status = ?1 ORDER BY id", DeployJob.Status.QUEUED);
+    }
+
+    private void endCurrentStage(DeployJob job, LocalDateTime now) {
+        if (job.stages.size() > 0) {
+            DeployJobStage last = job.stages.get(job.stages.size() - 1);
+            if (last.endTime == null) {
+                last.endTime = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.wildfly.managed.repo;
+
+import io.quarkus.panache.common.Parameters;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.wildfly.managed.ServerException;
+import org.wildfly.managed.common.model.Application;
+import org.wildfly.managed.common.model.DeploymentRecord;
+import org.wildfly.managed.common.model.DeploymentStats;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import javax.ws.rs.core.Response;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Applies the retention policy to the deployment history of applications. Records which fall outside the policy are
+ * rolled up into {@link DeploymentStats} per day, and deleted.
+ */
+@ApplicationScoped
+public class DeploymentHistoryRepo {
+    private static final String DURATION_MILLIS = "CAST(FLOOR(EXTRACT(EPOCH FROM endtime - starttime) * 1000) AS BIGINT)";
+
+    @Inject
+    EntityManager entityManager;
+
+    @ConfigProperty(name = "managed.server.deployment.history.compact.page-size", defaultValue = "1000")
+    int pageSize;
+
+    @Inject
+    ApplicationRepo applicationRepo;
+
+    @Transactional
+    public void setRetention(String appName, Integer keep, Integer maxAgeDays) {
+        if ((keep != null && keep < 0) || (maxAgeDays != null && maxAgeDays < 0)) {
+            throw new ServerException(Response.Status.BAD_REQUEST, "The number of records to keep and the maximum age can't be negative");
+        }
+        Application application = applicationRepo.findByName(appName);
+        application.historyKeep = keep;
+        application.historyMaxAgeDays = maxAgeDays;
+    }
+
+    @Transactional
+    public List<DeploymentStats> getStats(String appName) {
+        Application application = applicationRepo.findByName(appName);
+        return DeploymentStats.list("application = ?1 ORDER BY statsDate", application);
+    }
+
+    /**
+     * Compacts the deployment history of an application. The running deployment and the last completed deployment
+     * are always kept, since they are needed to work out the state of the application. The expired records are
+     * selected, rolled up and deleted a page at a time, each page in its own transaction.
+     *
+     * @param appName the application name
+     * @param defaultKeep the number of records to keep if the application does not say. 0 means no limit.
+     * @param defaultMaxAgeDays the maximum age of records in days if the application does not say. 0 means no limit.
+     * @return the number of records which were compacted
+     */
+    public int compact(String appName, int defaultKeep, int defaultMaxAgeDays) {
+        LocalDateTime now = LocalDateTime.now();
+        int total = 0;
+        int compacted;
+        do {
+            compacted = compactPage(appName, defaultKeep, defaultMaxAgeDays, now);
+            total += compacted;
+        } while (compacted > 0);
+        return total;
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    int compactPage(String appName, int defaultKeep, int defaultMaxAgeDays, LocalDateTime now) {
+        Application application = applicationRepo.findByName(appName);
+        int keep = application.historyKeep != null ? application.historyKeep : defaultKeep;
+        int maxAgeDays = application.historyMaxAgeDays != null ? application.historyMaxAgeDays : defaultMaxAgeDays;
+        if (keep == 0 && maxAgeDays == 0) {
+            return 0;
+        }
+
+        Long lastCompletedId = entityManager.createQuery(
+                        "SELECT d.id FROM DeploymentRecord d WHERE d.application = :application AND d.status = :status " +
+                                "ORDER BY d.startTime DESC, d.id DESC", Long.class)
+                .setParameter("application", application)
+                .setParameter("status", DeploymentRecord.Status.COMPLETED)
+                .setMaxResults(1)
+                .getResultStream()
+                .findFirst()
+                .orElse(null);
+
+        // One more than a page is selected, so that skipping the last completed deployment still leaves a full page
+        Set<Long> ids = new LinkedHashSet<>();
+        if (keep > 0) {
+            // The running deployment counts against the number to keep
+            long running = DeploymentRecord.count("application = ?1 AND endTime IS NULL", application);
+            ids.addAll(entityManager.createQuery(
+                            "SELECT d.id FROM DeploymentRecord d WHERE d.application = :application AND d.endTime IS NOT NULL " +
+                                    "ORDER BY d.startTime DESC, d.id DESC", Long.class)
+                    .setParameter("application", application)
+                    .setFirstResult((int) Math.max(keep - running, 0))
+                    .setMaxResults(pageSize + 1)
+                    .getResultList());
+        }
+        if (maxAgeDays > 0) {
+            ids.addAll(entityManager.createQuery(
+                            "SELECT d.id FROM DeploymentRecord d WHERE d.application = :application AND d.endTime IS NOT NULL " +
+                                    "AND d.startTime < :cutOff ORDER BY d.startTime, d.id", Long.class)
+                    .setParameter("application", application)
+                    .setParameter("cutOff", now.minusDays(maxAgeDays))
+                    .setMaxResults(pageSize + 1)
+                    .getResultList());
+        }
+        ids.remove(lastCompletedId);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        rollUp(application, ids);
+
+        // The records are not in the Application.deploymentRecords collection since that is never initialised here
+        entityManager.createQuery("DELETE FROM DeploymentRecord d WHERE d.id IN :ids")
+                .setParameter("ids", ids)
+                .executeUpdate();
+        return ids.size();
+    }
+
+    private void rollUp(Application application, Set<Long> ids) {
+        // Plain SQL, since JPQL can't subtract timestamps
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = entityManager.createNativeQuery(
+                        "SELECT CAST(starttime AS DATE) AS day, " +
+                                "COUNT(*) FILTER (WHERE status = :completed) AS completed, " +
+                                "COUNT(*) FILTER (WHERE status = :failed) AS failed, " +
+                                "COUNT(*) FILTER (WHERE status IS NULL OR status NOT IN (:completed, :failed)) AS cancelled, " +
+                                "COUNT(*) FILTER (WHERE buildtriggered) AS builds, " +
+                                "SUM(" + DURATION_MILLIS + ") AS total_duration, " +
+                                "MAX(" + DURATION_MILLIS + ") AS max_duration " +
+                                "FROM deploymentrecord WHERE id IN (:ids) GROUP BY CAST(starttime AS DATE)")
+                .setParameter("completed", DeploymentRecord.Status.COMPLETED.name())
+                .setParameter("failed", DeploymentRecord.Status.FAILED.name())
+                .setParameter("ids", ids)
+                .getResultList();
+        for (Object[] row : rows) {
+            DeploymentStats stats = findOrCreateStats(application, ((Date) row[0]).toLocalDate());
+            stats.completed += ((Number) row[1]).intValue();
+            stats.failed += ((Number) row[2]).intValue();
+            stats.cancelled += ((Number) row[3]).intValue();
+            stats.buildsTriggered += ((Number) row[4]).intValue();
+            stats.totalDurationMillis += ((Number) row[5]).longValue();
+            stats.maxDurationMillis = Math.max(stats.maxDurationMillis, ((Number) row[6]).longValue());
+        }
+    }
+
+    private DeploymentStats findOrCreateStats(Application application, LocalDate date) {
+        DeploymentStats stats = DeploymentStats.find(
+                "application = :application AND statsDate = :date",
+                Parameters
+                        .with("application", application)
+                        .and("date", date)
+        ).firstResult();
+        if (stats == null) {
+            stats = new DeploymentStats();
+            stats.application = application;
+            stats.statsDate = date;
+            stats.persist();
+        }
+        return stats;
+    }
+}
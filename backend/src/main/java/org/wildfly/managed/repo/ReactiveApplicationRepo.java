@@ -0,0 +1,131 @@
+package org.wildfly.managed.repo;
+
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.pgclient.PgPool;
+import io.vertx.mutiny.sqlclient.Row;
+import io.vertx.mutiny.sqlclient.RowSet;
+import io.vertx.mutiny.sqlclient.Tuple;
+import org.wildfly.managed.ServerException;
+import org.wildfly.managed.common.model.AppArchive;
+import org.wildfly.managed.common.model.Application;
+import org.wildfly.managed.common.model.DeploymentRecord;
+import org.wildfly.managed.common.value.AppState;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-blocking read queries for the endpoints which are polled a lot. Hibernate Reactive can't be used next to
+ * Hibernate ORM in the same application, so these go straight to the reactive Postgres client and map the rows to
+ * unmanaged entities, which serialise to the same JSON as the ones loaded by {@link ApplicationRepo}.
+ * <p/>
+ * The SQL uses the column names of the schema Hibernate generates for the entities. Enums are compared by name, so
+ * the enums they use must be mapped with {@code EnumType.STRING}.
+ */
+@ApplicationScoped
+public class ReactiveApplicationRepo {
+    private static final String APPLICATION_COLUMNS =
+            "a.id, a.name, a.hasserverconfigxml, a.hasserverinitcli, a.hasserverinityml, " +
+                    "a.lastconfigchange, a.lastarchivechange, a.historykeep, a.historymaxagedays";
+    private static final String ARCHIVE_COLUMNS =
+            "r.id AS archive_id, r.filename, r.digest, r.serverconfigxml, r.serverinitcli, r.serverinityml";
+
+    @Inject
+    PgPool client;
+
+    /**
+     * Lists all the applications and their archives, sorted by name
+     */
+    public Uni<List<Application>> listWithArchives() {
+        return client
+                .query("SELECT " + APPLICATION_COLUMNS + ", " + ARCHIVE_COLUMNS + " FROM application a " +
+                        "LEFT JOIN apparchive r ON r.application_id = a.id ORDER BY a.name")
+                .execute()
+                .map(rows -> {
+                    Map<Long, Application> byId = new LinkedHashMap<>();
+                    for (Row row : rows) {
+                        Application application = byId.computeIfAbsent(row.getLong("id"), id -> toApplication(row));
+                        // The LEFT JOIN gives one row with null archive columns if there are no archives
+                        if (row.getLong("archive_id") != null) {
+                            application.appArchives.add(toArchive(row));
+                        }
+                    }
+                    return new ArrayList<>(byId.values());
+                });
+    }
+
+    /**
+     * Gets the id of an application
+     *
+     * @param name the application name
+     * @return the id. Fails with a 404 if the application does not exist
+     */
+    public Uni<Long> findIdByName(String name) {
+        return client
+                .preparedQuery("SELECT a.id FROM application a WHERE a.name = $1")
+                .execute(Tuple.of(name))
+                .map(rows -> checkFound(rows, name).iterator().next().getLong("id"));
+    }
+
+    /**
+     * Works out whether an application has changes which have not been deployed yet, in one query. See
+     * {@link ApplicationRepo#getStageStatus(String)}
+     *
+     * @param name the application name
+     * @return the stage state. Fails with a 404 if the application does not exist
+     */
+    public Uni<AppState.StageState> getStageStatus(String name) {
+        return client
+                .preparedQuery("SELECT a.lastarchivechange, a.lastconfigchange, " +
+                        "(SELECT MAX(d.starttime) FROM deploymentrecord d WHERE d.application_id = a.id AND d.status = $2) AS lastdeployment " +
+                        "FROM application a WHERE a.name = $1")
+                .execute(Tuple.of(name, DeploymentRecord.Status.COMPLETED.name()))
+                .map(rows -> {
+                    Row row = checkFound(rows, name).iterator().next();
+                    LocalDateTime lastTime = row.getLocalDateTime("lastdeployment");
+                    if (lastTime != null &&
+                            (lastTime.isBefore(row.getLocalDateTime("lastarchivechange")) || lastTime.isBefore(row.getLocalDateTime("lastconfigchange")))) {
+                        return AppState.StageState.STAGED_CHANGES;
+                    }
+                    return AppState.StageState.UP_TO_DATE;
+                });
+    }
+
+    private static RowSet<Row> checkFound(RowSet<Row> rows, String name) {
+        if (rows.size() == 0) {
+            throw new ServerException(Response.Status.NOT_FOUND, "No application called: " + name);
+        }
+        return rows;
+    }
+
+    private static Application toApplication(Row row) {
+        Application application = new Application();
+        application.id = row.getLong("id");
+        application.name = row.getString("name");
+        application.hasServerConfigXml = row.getBoolean("hasserverconfigxml");
+        application.hasServerInitCli = row.getBoolean("hasserverinitcli");
+        application.hasServerInitYml = row.getBoolean("hasserverinityml");
+        application.lastConfigChange = row.getLocalDateTime("lastconfigchange");
+        application.lastArchiveChange = row.getLocalDateTime("lastarchivechange");
+        application.historyKeep = row.getInteger("historykeep");
+        application.historyMaxAgeDays = row.getInteger("historymaxagedays");
+        return application;
+    }
+
+    private static AppArchive toArchive(Row row) {
+        AppArchive archive = new AppArchive();
+        archive.id = row.getLong("archive_id");
+        archive.fileName = row.getString("filename");
+        archive.digest = row.getString("digest");
+        archive.serverConfigXml = row.getBoolean("serverconfigxml");
+        archive.serverInitCli = row.getBoolean("serverinitcli");
+        archive.serverInitYml = row.getBoolean("serverinityml");
+        return archive;
+    }
+}
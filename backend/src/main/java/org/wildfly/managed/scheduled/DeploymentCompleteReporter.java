@@ -1,17 +1,32 @@
 package org.wildfly.managed.scheduled;
 
+import io.fabric8.openshift.api.model.Build;
+import io.quarkus.runtime.StartupEvent;
 import io.quarkus.scheduler.Scheduled;
+import org.jboss.logging.Logger;
+import org.wildfly.managed.BlockingExecutor;
 import org.wildfly.managed.common.model.DeploymentRecord;
 import org.wildfly.managed.common.value.AppState;
 import org.wildfly.managed.openshift.OpenshiftFacade;
+import org.wildfly.managed.openshift.OpenshiftStateCache;
 import org.wildfly.managed.repo.ApplicationRepo;
 
+import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.List;
+import java.util.Set;
 
+/**
+ * Closes the running {@link DeploymentRecord} of an application once its builds are done. This is driven by Build
+ * events from the {@link OpenshiftStateCache}, with a low frequency sweep as a safety net for missed events, or for
+ * when the cache is not available.
+ */
 @Singleton
 public class DeploymentCompleteReporter {
+    private static final Logger log = Logger.getLogger(DeploymentCompleteReporter.class);
+
+    private static final Set<String> TERMINAL_BUILD_PHASES = Set.of("Complete", "Failed", "Error", "Cancelled");
 
     @Inject
     ApplicationRepo applicationRepo;
@@ -19,26 +34,57 @@ public class DeploymentCompleteReporter {
     @Inject
     OpenshiftFacade openshiftFacade;
 
+    @Inject
+    OpenshiftStateCache stateCache;
+
+    @Inject
+    BlockingExecutor blockingExecutor;
 
-    @Scheduled(every = "10s", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void registerBuildListener(@Observes StartupEvent event) {
+        stateCache.addBuildListener(this::buildChanged);
+    }
+
+    void buildChanged(Build build) {
+        if (build.getStatus() == null || !TERMINAL_BUILD_PHASES.contains(build.getStatus().getPhase())) {
+            return;
+        }
+        String appName = build.getMetadata().getLabels().get("app");
+        // This is called on the informer thread, which must not wait for the database and OpenShift calls, otherwise
+        // the events of all the other resources are held up
+        blockingExecutor.run(() -> {
+                    DeploymentRecord record = applicationRepo.getRunningDeployment(appName);
+                    if (record != null) {
+                        unlockIfBuildsDone(appName, record);
+                    }
+                })
+                .subscribe().with(
+                        ignored -> {},
+                        e -> log.errorf(e, "Error handling the end of a build of %s", appName));
+    }
+
+    @Scheduled(every = "${managed.server.deployment.reconcile.every:2m}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
     void unlockCompletedDeployments() {
-        System.out.println("Unlocking completed deployments");
+        log.debug("Unlocking completed deployments");
         try {
             List<DeploymentRecord> records = applicationRepo.getAllRunningDeployments();
             for (DeploymentRecord record : records) {
-                if (!record.buildTriggered) {
-                    continue;
-                }
-                AppState.BuildState buildState = openshiftFacade.getBuildState(record.application.name);
-                System.out.println("State for " + record.application.name + " " + buildState);
-                if (buildState.isDone()) {
-                    DeploymentRecord.Status status = buildState == AppState.BuildState.COMPLETED ? DeploymentRecord.Status.COMPLETED : DeploymentRecord.Status.FAILED;
-                    applicationRepo.recordDeploymentEnd(record.application.name, status);
-                }
+                unlockIfBuildsDone(record.application.name, record);
             }
         } catch (Exception e) {
             //TODO observe the FailedExecution CDI event mentioned in https://quarkus.io/guides/scheduler-reference#scheduled-methods?
-            e.printStackTrace();
+            log.error("Error unlocking completed deployments", e);
+        }
+    }
+
+    private void unlockIfBuildsDone(String appName, DeploymentRecord record) {
+        if (!record.buildTriggered) {
+            return;
+        }
+        AppState.BuildState buildState = openshiftFacade.getBuildState(appName);
+        log.debugf("Build state for %s is %s", appName, buildState);
+        if (buildState.isDone()) {
+            DeploymentRecord.Status status = buildState == AppState.BuildState.COMPLETED ? DeploymentRecord.Status.COMPLETED : DeploymentRecord.Status.FAILED;
+            applicationRepo.recordDeploymentEnd(appName, status);
         }
     }
 }
@@ -0,0 +1,46 @@
+package org.wildfly.managed.scheduled;
+
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.wildfly.managed.repo.ApplicationRepo;
+import org.wildfly.managed.repo.ApplicationSummary;
+import org.wildfly.managed.repo.DeploymentHistoryRepo;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Applies the deployment history retention policy to all applications. The records of each application are compacted
+ * a page at a time, each page in its own transaction.
+ */
+@Singleton
+public class DeploymentHistoryCompactor {
+    private static final Logger log = Logger.getLogger(DeploymentHistoryCompactor.class);
+
+    @Inject
+    ApplicationRepo applicationRepo;
+
+    @Inject
+    DeploymentHistoryRepo deploymentHistoryRepo;
+
+    @ConfigProperty(name = "managed.server.deployment.history.keep", defaultValue = "100")
+    int defaultKeep;
+
+    @ConfigProperty(name = "managed.server.deployment.history.max-age-days", defaultValue = "90")
+    int defaultMaxAgeDays;
+
+    @Scheduled(every = "${managed.server.deployment.history.compact.every:1h}", delayed = "1m", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void compact() {
+        for (ApplicationSummary application : applicationRepo.listSummaries()) {
+            try {
+                int compacted = deploymentHistoryRepo.compact(application.getName(), defaultKeep, defaultMaxAgeDays);
+                if (compacted > 0) {
+                    log.infof("Compacted %d deployment records of %s", compacted, application.getName());
+                }
+            } catch (Exception e) {
+                log.errorf(e, "Error compacting the deployment history of %s", application.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.wildfly.managed.store;
+
+import org.jboss.logging.Logger;
+import org.wildfly.managed.ServerException;
+import org.wildfly.managed.common.util.Digests;
+import org.wildfly.managed.config.UiPaths;
+import org.wildfly.managed.repo.ApplicationRepo;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Content addressed store for uploaded archives. Each distinct archive is stored once, named by the SHA-256 of
+ * its contents, and hard linked into the directories of the applications using it. Blobs are garbage collected
+ * once no {@link org.wildfly.managed.common.model.AppArchive} references their digest any more.
+ */
+@ApplicationScoped
+public class ArchiveStore {
+    private static final Logger log = Logger.getLogger(ArchiveStore.class);
+    private static final int LOCK_STRIPES = 64;
+
+    // Storing, linking and releasing a blob happen under the lock for its digest. Locks rather than synchronized, so
+    // that virtual threads don't pin their carrier thread while doing file I/O and database calls under them
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+    // The number of uploads using each digest which have not been committed yet. Guarded by the lock for the digest
+    private final Map<String, Integer> pins = new ConcurrentHashMap<>();
+
+    @Inject
+    UiPaths uiPaths;
+
+    @Inject
+    ApplicationRepo applicationRepo;
+
+    @Inject
+    ConfigFileCache configFileCache;
+
+    public ArchiveStore() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Calculates the SHA-256 of a file
+     *
+     * @param file the file
+     * @return the hex encoded digest
+     */
+    public static String digest(Path file) {
+        try {
+            return Digests.sha256(file);
+        } catch (IOException e) {
+            throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Error calculating the digest of the archive. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Moves an uploaded file into the store, unless a blob with the same digest is already there in which case the
+     * uploaded file is simply deleted. The blob is then linked to the destination, replacing any existing file.
+     * <p>
+     * The digest is pinned, so that {@link #release(Collection)} leaves the blob alone until the archive referencing
+     * it has been committed. The caller must call {@link #unpin(String)} once that is done, or has failed.
+     *
+     * @param uploaded the uploaded file
+     * @param digest the digest of the uploaded file, as calculated by {@link #digest(Path)}
+     * @param dest the location in the application directory
+     */
+    public void storeAndLink(Path uploaded, String digest, Path dest) {
+        Path blob = getBlob(digest);
+        Lock lock = getLock(digest);
+        lock.lock();
+        try {
+            pins.merge(digest, 1, Integer::sum);
+            try {
+                if (!Files.exists(blob)) {
+                    // The upload might be on another file system, so move it next to the blob first to be able to
+                    // rename it atomically
+                    Path tmp = uiPaths.getArchiveStoreDir().resolve(digest + "." + UUID.randomUUID() + ".tmp");
+                    Files.move(uploaded, tmp);
+                    Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    Files.deleteIfExists(uploaded);
+                }
+
+                link(blob, dest);
+            } catch (IOException e) {
+                throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "An error happened copying the files on the server", e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Links a blob which is already in the store to a destination, replacing any existing file. This puts back the
+     * previous contents of an archive when replacing them has failed.
+     *
+     * @param digest the digest of the blob
+     * @param dest the location in the application directory
+     * @return whether the blob was there to link
+     */
+    public boolean relink(String digest, Path dest) {
+        Path blob = getBlob(digest);
+        Lock lock = getLock(digest);
+        lock.lock();
+        try {
+            if (!Files.exists(blob)) {
+                return false;
+            }
+            link(blob, dest);
+            return true;
+        } catch (IOException e) {
+            throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "An error happened copying the files on the server", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Unpins a digest pinned by {@link #storeAndLink(Path, String, Path)}
+     *
+     * @param digest the digest
+     */
+    public void unpin(String digest) {
+        Lock lock = getLock(digest);
+        lock.lock();
+        try {
+            pins.computeIfPresent(digest, (d, count) -> count > 1 ? count - 1 : null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the blobs for the digests which are no longer used by any archive. Blobs which are pinned by an upload
+     * in progress are kept.
+     *
+     * @param digests the digests of archives which have been replaced or deleted. {@code null} entries are ignored.
+     */
+    public void release(Collection<String> digests) {
+        for (String digest : digests) {
+            if (digest == null) {
+                continue;
+            }
+            // Most released blobs are still used by other archives, so check without holding up uploads of the
+            // same digest
+            if (pins.containsKey(digest) || applicationRepo.isArchiveDigestReferenced(digest)) {
+                continue;
+            }
+            Lock lock = getLock(digest);
+            lock.lock();
+            try {
+                // An upload might have linked the blob and committed since the check
+                if (pins.containsKey(digest) || applicationRepo.isArchiveDigestReferenced(digest)) {
+                    continue;
+                }
+                configFileCache.invalidate(digest);
+                try {
+                    Files.deleteIfExists(getBlob(digest));
+                } catch (IOException e) {
+                    log.warnf("Could not delete unused archive %s. Message: %s", digest, e.getMessage());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Deletes the directory of a deleted application. The archives in it are links to the blobs, so the blobs need
+     * releasing separately.
+     *
+     * @param appName the application name
+     */
+    public void deleteApplicationDir(String appName) {
+        Path appDir = uiPaths.getWorkingDir().resolve(appName);
+        if (!Files.exists(appDir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(appDir)) {
+            for (Iterator<Path> it = files.sorted(Comparator.reverseOrder()).iterator(); it.hasNext(); ) {
+                Files.deleteIfExists(it.next());
+            }
+        } catch (IOException e) {
+            log.warnf("Could not delete the directory of deleted application %s. Message: %s", appName, e.getMessage());
+        }
+    }
+
+    private void link(Path blob, Path dest) throws IOException {
+        Files.deleteIfExists(dest);
+        try {
+            Files.createLink(dest, blob);
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // Hard links are not supported, or the store is on another file system
+            Files.copy(blob, dest);
+        }
+    }
+
+    private Lock getLock(String digest) {
+        return locks[Math.floorMod(digest.hashCode(), locks.length)];
+    }
+
+    private Path getBlob(String digest) {
+        return uiPaths.getArchiveStoreDir().resolve(digest);
+    }
+}
@@ -0,0 +1,486 @@
+package org.wildfly.managed.store;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import org.jboss.logging.Logger;
+import org.wildfly.managed.ServerException;
+import org.wildfly.managed.common.value.ArchiveUpload;
+import org.wildfly.managed.config.UiPaths;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Keeps track of chunked archive uploads. Chunks are written straight to their position in the upload file, so
+ * they may arrive in any order and in parallel. Once all chunks are received, the digest of the file is checked
+ * when the upload is completed.
+ * <p/>
+ * The uploads survive restarts. Next to the upload file, '[id].properties' holds the details of the upload, and
+ * '[id].chunks' lists the received chunks. A chunk is only added to the list once it has been written to disk.
+ */
+@ApplicationScoped
+public class ArchiveUploads {
+    private static final Logger log = Logger.getLogger(ArchiveUploads.class);
+
+    static final int MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final Duration EXPIRY = Duration.ofHours(24);
+    private static final String PROPERTIES_SUFFIX = ".properties";
+    private static final String CHUNKS_SUFFIX = ".chunks";
+
+    @Inject
+    UiPaths uiPaths;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    // Finding a matching upload and creating one if there is none happen under this lock, so that clients starting
+    // the same upload at the same time share it. A lock rather than synchronized, so that virtual threads don't pin
+    // their carrier thread while the session files are created
+    private final Lock startLock = new ReentrantLock();
+
+    void restoreSessions(@Observes StartupEvent event) throws IOException {
+        Set<Path> sessionFiles = new HashSet<>();
+        try (Stream<Path> files = Files.list(uiPaths.getUploadsDir())) {
+            for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+                Path file = it.next();
+                String name = file.getFileName().toString();
+                if (!name.endsWith(PROPERTIES_SUFFIX)) {
+                    continue;
+                }
+                try {
+                    Session session = Session.restore(uiPaths.getUploadsDir(), name.substring(0, name.length() - PROPERTIES_SUFFIX.length()));
+                    sessions.put(session.id, session);
+                    sessionFiles.addAll(session.getFiles());
+                } catch (IOException | RuntimeException e) {
+                    log.warnf("Could not restore the upload %s. Message: %s", file, e.getMessage());
+                }
+            }
+        }
+        if (!sessions.isEmpty()) {
+            log.infof("Restored %d archive uploads", sessions.size());
+        }
+        // Get rid of the files of uploads which could not be restored
+        try (Stream<Path> files = Files.list(uiPaths.getUploadsDir())) {
+            for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+                Path file = it.next();
+                if (!sessionFiles.contains(file)) {
+                    deleteFile(file);
+                }
+            }
+        }
+    }
+
+    void closeSessions(@Observes ShutdownEvent event) {
+        for (Session session : sessions.values()) {
+            session.close();
+        }
+    }
+
+    /**
+     * Starts an upload. If there is already an upload in progress of the same archive to the same application, that
+     * is returned so the client can resume it.
+     *
+     * @param appName the application name
+     * @param request the details of the archive to upload
+     * @return the upload
+     */
+    public ArchiveUpload start(String appName, ArchiveUpload request) {
+        if (request.fileName == null || !request.fileName.endsWith(".war")) {
+            throw new ServerException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Only .war archives can be uploaded.");
+        }
+        if (request.digest == null) {
+            throw new ServerException(Response.Status.BAD_REQUEST, "The digest of the archive is needed.");
+        }
+        if (request.size <= 0 || request.chunkSize <= 0 || request.chunkSize > MAX_CHUNK_SIZE) {
+            throw new ServerException(Response.Status.BAD_REQUEST, "Bad size or chunk size. Chunks can be at most " + MAX_CHUNK_SIZE + " bytes.");
+        }
+        startLock.lock();
+        try {
+            for (Session session : sessions.values()) {
+                if (!session.closed && session.matches(appName, request)) {
+                    session.touch();
+                    return session.toArchiveUpload();
+                }
+            }
+
+            Session session;
+            try {
+                session = Session.create(uiPaths.getUploadsDir(), appName, request, UUID.randomUUID().toString());
+            } catch (IOException e) {
+                throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Could not start the upload. " + e.getMessage(), e);
+            }
+            sessions.put(session.id, session);
+            return session.toArchiveUpload();
+        } finally {
+            startLock.unlock();
+        }
+    }
+
+    public ArchiveUpload getStatus(String appName, String id) {
+        return getSession(appName, id).toArchiveUpload();
+    }
+
+    /**
+     * Writes a chunk of the archive. The chunk is streamed to the upload file, and only counts as received once all
+     * of it has been written.
+     *
+     * @param appName the application name
+     * @param id the upload id
+     * @param offset the offset of the chunk in the archive. Must be a multiple of the chunk size
+     * @param body the contents of the chunk
+     */
+    public void writeChunk(String appName, String id, long offset, InputStream body) {
+        Session session = getSession(appName, id);
+        if (offset < 0 || offset >= session.size || offset % session.chunkSize != 0) {
+            throw new ServerException(Response.Status.BAD_REQUEST, "Bad offset " + offset);
+        }
+        int index = (int) (offset / session.chunkSize);
+        long end = offset + Math.min(session.chunkSize, session.size - offset);
+
+        // Completing or removing the upload waits for the chunks being written
+        session.lock.readLock().lock();
+        try {
+            if (session.closed) {
+                throw notFound(appName, id);
+            }
+            session.touch();
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            long position = offset;
+            while (position < end) {
+                int read = body.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), end - position));
+                if (read == -1) {
+                    throw badChunkLength(offset, end);
+                }
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    position += session.channel.write(buffer, position);
+                }
+                buffer.clear();
+            }
+            if (body.read() != -1) {
+                throw badChunkLength(offset, end);
+            }
+            session.recordReceived(index);
+        } catch (IOException e) {
+            throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Error writing chunk at offset " + offset + ". " + e.getMessage(), e);
+        } finally {
+            session.lock.readLock().unlock();
+        }
+        session.touch();
+    }
+
+    /**
+     * Completes the upload once all chunks have been received, and checks the digest of the uploaded archive.
+     *
+     * @param appName the application name
+     * @param id the upload id
+     * @return the completed upload. The caller is responsible for moving or deleting the file.
+     */
+    public CompletedUpload complete(String appName, String id) {
+        Session session = getSession(appName, id);
+        session.lock.writeLock().lock();
+        try {
+            if (session.closed) {
+                throw notFound(appName, id);
+            }
+            if (session.received.size() < session.chunkCount) {
+                throw new ServerException(Response.Status.CONFLICT, "Only " + session.received.size() + " of " + session.chunkCount + " chunks have been uploaded");
+            }
+            session.closed = true;
+            sessions.remove(id);
+            session.close();
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+        // The upload file is handed over to the caller, so only the session details are deleted
+        deleteFile(session.propertiesFile);
+        deleteFile(session.chunksFile);
+
+        String digest = ArchiveStore.digest(session.file);
+        if (!digest.equals(session.digest)) {
+            deleteFile(session.file);
+            throw new ServerException(Response.Status.BAD_REQUEST, "The digest of the uploaded archive does not match. The upload needs to be started again.");
+        }
+        return new CompletedUpload(session.fileName, session.file, digest, session.replace);
+    }
+
+    public void abort(String appName, String id) {
+        Session session = getSession(appName, id);
+        if (!remove(session)) {
+            throw notFound(appName, id);
+        }
+    }
+
+    @Scheduled(every = "1h", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void expireUploads() {
+        long cutOff = System.currentTimeMillis() - EXPIRY.toMillis();
+        for (Session session : new ArrayList<>(sessions.values())) {
+            if (session.lastAccess < cutOff) {
+                remove(session);
+            }
+        }
+    }
+
+    /**
+     * Closes a session, waiting for any chunks being written, and deletes its files
+     *
+     * @return {@code false} if the session had already been completed or removed
+     */
+    private boolean remove(Session session) {
+        session.lock.writeLock().lock();
+        try {
+            if (session.closed) {
+                return false;
+            }
+            session.closed = true;
+            sessions.remove(session.id);
+            session.close();
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+        for (Path file : session.getFiles()) {
+            deleteFile(file);
+        }
+        return true;
+    }
+
+    private Session getSession(String appName, String id) {
+        Session session = sessions.get(id);
+        if (session == null || !session.appName.equals(appName)) {
+            throw notFound(appName, id);
+        }
+        return session;
+    }
+
+    private static ServerException notFound(String appName, String id) {
+        return new ServerException(Response.Status.NOT_FOUND, "No upload " + id + " for application " + appName);
+    }
+
+    private static ServerException badChunkLength(long offset, long end) {
+        return new ServerException(Response.Status.BAD_REQUEST, "Chunk at offset " + offset + " should be " + (end - offset) + " bytes");
+    }
+
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warnf("Could not delete upload file %s. Message: %s", file, e.getMessage());
+        }
+    }
+
+    public static class CompletedUpload {
+        private final String fileName;
+        private final Path file;
+        private final String digest;
+        private final boolean replace;
+
+        CompletedUpload(String fileName, Path file, String digest, boolean replace) {
+            this.fileName = fileName;
+            this.file = file;
+            this.digest = digest;
+            this.replace = replace;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public boolean isReplace() {
+            return replace;
+        }
+    }
+
+    private static class Session {
+        private final String appName;
+        private final String id;
+        private final String fileName;
+        private final long size;
+        private final int chunkSize;
+        private final int chunkCount;
+        private final String digest;
+        private final boolean replace;
+        private final Path file;
+        private final Path propertiesFile;
+        private final Path chunksFile;
+        private final Set<Integer> received = ConcurrentHashMap.newKeySet();
+        // Chunks are written under the read lock, and the session is completed or removed under the write lock
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // Guarded by the write lock
+        private volatile boolean closed;
+        private FileChannel channel;
+        private FileChannel chunksChannel;
+        private volatile long lastAccess;
+
+        private Session(Path uploadsDir, String appName, ArchiveUpload request, String id) {
+            this.appName = appName;
+            this.id = id;
+            this.fileName = request.fileName;
+            this.size = request.size;
+            this.chunkSize = request.chunkSize;
+            this.chunkCount = request.getChunkCount();
+            this.digest = request.digest;
+            this.replace = request.replace;
+            this.file = uploadsDir.resolve(id);
+            this.propertiesFile = uploadsDir.resolve(id + PROPERTIES_SUFFIX);
+            this.chunksFile = uploadsDir.resolve(id + CHUNKS_SUFFIX);
+            touch();
+        }
+
+        static Session create(Path uploadsDir, String appName, ArchiveUpload request, String id) throws IOException {
+            Session session = new Session(uploadsDir, appName, request, id);
+            session.channel = FileChannel.open(session.file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try {
+                session.chunksChannel = FileChannel.open(session.chunksFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                session.writeProperties();
+            } catch (IOException | RuntimeException e) {
+                session.close();
+                for (Path file : session.getFiles()) {
+                    deleteFile(file);
+                }
+                throw e;
+            }
+            return session;
+        }
+
+        static Session restore(Path uploadsDir, String id) throws IOException {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(uploadsDir.resolve(id + PROPERTIES_SUFFIX), StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            ArchiveUpload request = new ArchiveUpload();
+            request.fileName = properties.getProperty("fileName");
+            request.size = Long.parseLong(properties.getProperty("size"));
+            request.chunkSize = Integer.parseInt(properties.getProperty("chunkSize"));
+            request.digest = properties.getProperty("digest");
+            request.replace = Boolean.parseBoolean(properties.getProperty("replace"));
+            Session session = new Session(uploadsDir, properties.getProperty("appName"), request, id);
+            if (session.appName == null || request.fileName == null || request.digest == null) {
+                throw new IOException("Incomplete upload details");
+            }
+
+            if (Files.exists(session.chunksFile)) {
+                for (String line : Files.readAllLines(session.chunksFile, StandardCharsets.UTF_8)) {
+                    // The last line may be incomplete if the server stopped while it was written
+                    try {
+                        int index = Integer.parseInt(line.trim());
+                        if (index >= 0 && index < session.chunkCount) {
+                            session.received.add(index);
+                        }
+                    } catch (NumberFormatException ignore) {
+                    }
+                }
+            }
+            session.lastAccess = Math.max(Files.getLastModifiedTime(session.file).toMillis(),
+                    Files.getLastModifiedTime(session.propertiesFile).toMillis());
+            session.channel = FileChannel.open(session.file, StandardOpenOption.WRITE);
+            session.chunksChannel = FileChannel.open(session.chunksFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            return session;
+        }
+
+        private void writeProperties() throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("appName", appName);
+            properties.setProperty("fileName", fileName);
+            properties.setProperty("size", String.valueOf(size));
+            properties.setProperty("chunkSize", String.valueOf(chunkSize));
+            properties.setProperty("digest", digest);
+            properties.setProperty("replace", String.valueOf(replace));
+            // Write it in one go, so that a half written file is never seen on restart
+            Path tmp = propertiesFile.resolveSibling(propertiesFile.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                properties.store(writer, "Archive upload");
+            }
+            Files.move(tmp, propertiesFile, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Records that a chunk has been received. The chunk is forced to disk first, so that it is only listed as
+         * received after a restart if its contents were kept
+         */
+        void recordReceived(int index) throws IOException {
+            channel.force(false);
+            chunksChannel.write(ByteBuffer.wrap((index + "\n").getBytes(StandardCharsets.UTF_8)));
+            received.add(index);
+        }
+
+        List<Path> getFiles() {
+            return Arrays.asList(file, propertiesFile, chunksFile);
+        }
+
+        boolean matches(String appName, ArchiveUpload request) {
+            return this.appName.equals(appName)
+                    && fileName.equals(request.fileName)
+                    && digest.equals(request.digest)
+                    && size == request.size
+                    && chunkSize == request.chunkSize
+                    && replace == request.replace;
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        void close() {
+            for (FileChannel fileChannel : new FileChannel[]{channel, chunksChannel}) {
+                try {
+                    if (fileChannel != null) {
+                        fileChannel.close();
+                    }
+                } catch (IOException ignore) {
+                }
+            }
+        }
+
+        ArchiveUpload toArchiveUpload() {
+            ArchiveUpload upload = new ArchiveUpload();
+            upload.id = id;
+            upload.fileName = fileName;
+            upload.size = size;
+            upload.chunkSize = chunkSize;
+            upload.digest = digest;
+            upload.replace = replace;
+            List<Integer> chunks = new ArrayList<>(received);
+            Collections.sort(chunks);
+            upload.receivedChunks = chunks;
+            return upload;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.wildfly.managed.store;
+
+import org.jboss.logging.Logger;
+import org.wildfly.managed.ConfigFileInspection;
+import org.wildfly.managed.ServerException;
+import org.wildfly.managed.common.model.AppArchive;
+import org.wildfly.managed.config.UiPaths;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Holds the config files found in archives, extracted once when the archive is uploaded. Like the
+ * {@link ArchiveStore}, entries are keyed by the digest of the archive, so an archive which is replaced with different
+ * contents gets a new entry. Entries are removed when the archive store releases the blob.
+ */
+@ApplicationScoped
+public class ConfigFileCache {
+    private static final Logger log = Logger.getLogger(ConfigFileCache.class);
+
+    @Inject
+    UiPaths uiPaths;
+
+    /**
+     * Extracts the config files found by the inspection of an uploaded archive, unless they are cached already
+     *
+     * @param archiveFile the archive
+     * @param digest the digest of the archive
+     * @param inspection the result of inspecting the archive
+     */
+    public void extract(Path archiveFile, String digest, ConfigFileInspection inspection) {
+        extract(archiveFile, digest, getEntryNames(inspection.isServerConfigXml(), inspection.isServerInitCli(), inspection.isServerInitYml()));
+    }
+
+    /**
+     * Copies the config files of an archive to a directory. If the archive was uploaded before its config files were
+     * cached, they are extracted and cached first.
+     *
+     * @param archive the archive
+     * @param archiveFile the archive file
+     * @param targetDir the directory to copy the config files to
+     */
+    public void copyConfigFiles(AppArchive archive, Path archiveFile, Path targetDir) {
+        List<String> names = getEntryNames(archive.serverConfigXml, archive.serverInitCli, archive.serverInitYml);
+        if (names.isEmpty()) {
+            return;
+        }
+        if (archive.digest == null) {
+            // Nothing to key the cache on
+            extractEntries(archiveFile, names, targetDir);
+            return;
+        }
+        Path dir = getCacheDir(archive.digest);
+        if (!Files.exists(dir)) {
+            extract(archiveFile, archive.digest, names);
+        }
+        try {
+            for (String name : names) {
+                Path source = dir.resolve(getFileName(name));
+                if (Files.exists(source)) {
+                    Files.copy(source, targetDir.resolve(source.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException e) {
+            throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Error copying the config files of " + archive.fileName + ". " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Removes the cached config files of an archive
+     *
+     * @param digest the digest of the archive
+     */
+    public void invalidate(String digest) {
+        Path dir = getCacheDir(digest);
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            log.warnf("Could not delete cached config files for %s. Message: %s", digest, e.getMessage());
+        }
+    }
+
+    private void extract(Path archiveFile, String digest, List<String> names) {
+        if (names.isEmpty()) {
+            return;
+        }
+        Path dir = getCacheDir(digest);
+        if (Files.exists(dir)) {
+            return;
+        }
+        // Extract next to the final location and rename it, so a partially extracted entry is never seen
+        Path tmp = uiPaths.getConfigCacheDir().resolve(digest + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(tmp);
+            extractEntries(archiveFile, names, tmp);
+            try {
+                Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Someone else extracted the same archive at the same time. Depending on the file system, renaming
+                // onto their non-empty directory fails with a FileAlreadyExistsException or a generic
+                // FileSystemException (ENOTEMPTY)
+                if (!Files.exists(dir)) {
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Error caching the config files of " + archiveFile.getFileName() + ". " + e.getMessage(), e);
+        } finally {
+            if (Files.exists(tmp)) {
+                // The rename did not happen, so clean up
+                invalidate(tmp.getFileName().toString());
+            }
+        }
+    }
+
+    /**
+     * Extracts entries from an archive into a directory. The entries are looked up in the zip central directory, so
+     * the archive is opened once and only the wanted entries are decompressed.
+     */
+    private void extractEntries(Path archiveFile, List<String> names, Path dir) {
+        try (ZipFile zipFile = new ZipFile(archiveFile.toFile())) {
+            for (String name : names) {
+                ZipEntry entry = zipFile.getEntry(name);
+                if (entry == null || entry.isDirectory()) {
+                    continue;
+                }
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    Files.copy(in, dir.resolve(getFileName(name)), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException e) {
+            throw new ServerException(Response.Status.INTERNAL_SERVER_ERROR, "Error unzipping " + names + " from " + archiveFile);
+        }
+    }
+
+    private Path getCacheDir(String digest) {
+        return uiPaths.getConfigCacheDir().resolve(digest);
+    }
+
+    private static String getFileName(String entryName) {
+        return entryName.substring(entryName.lastIndexOf("/") + 1);
+    }
+
+    private static List<String> getEntryNames(boolean serverConfigXml, boolean serverInitCli, boolean serverInitYml) {
+        List<String> names = new ArrayList<>(3);
+        if (serverConfigXml) {
+            names.add(ConfigFileInspection.SERVER_CONFIG_XML);
+        }
+        if (serverInitCli) {
+            names.add(ConfigFileInspection.SERVER_INIT_CLI);
+        }
+        if (serverInitYml) {
+            names.add(ConfigFileInspection.SERVER_INIT_YML);
+        }
+        return names;
+    }
+}
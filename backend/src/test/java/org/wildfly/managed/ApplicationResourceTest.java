@@ -0,0 +1,119 @@
+package org.wildfly.managed;
+
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.wildfly.managed.config.UiPaths;
+import org.wildfly.managed.repo.ApplicationRepo;
+import org.wildfly.managed.repo.TestApplications;
+import org.wildfly.managed.store.ArchiveStore;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+@QuarkusTest
+public class ApplicationResourceTest {
+
+    @Inject
+    TestApplications testApplications;
+
+    @Inject
+    ApplicationRepo applicationRepo;
+
+    @Inject
+    UiPaths uiPaths;
+
+    private String appName;
+    private Path dir;
+
+    @BeforeEach
+    public void createApplication() throws IOException {
+        dir = Files.createTempDirectory("upload");
+        appName = TestApplications.uniqueName("upload");
+        // archive-0.war contains a server-init.cli
+        testApplications.create(appName, 1, 0);
+        Files.writeString(uiPaths.getApplicationDir(appName).resolve("archive-0.war"), "previous", StandardCharsets.UTF_8);
+    }
+
+    @AfterEach
+    public void deleteApplication() throws IOException {
+        testApplications.delete(appName);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testRejectedReplaceLeavesArchiveAlone() throws IOException {
+        testApplications.addDeploymentRecord(appName, null, LocalDateTime.now());
+        Path war = createWar("archive-0.war");
+
+        given()
+                .multiPart("file", war.toFile())
+                .when().put("/app/{appName}/archive/{archiveName}", appName, "archive-0.war")
+                .then()
+                .statusCode(409);
+
+        Path dest = uiPaths.getApplicationDir(appName).resolve("archive-0.war");
+        assertEquals("previous", Files.readString(dest));
+        assertEquals("digest-0", applicationRepo.findArchive(appName, "archive-0.war").digest);
+        assertFalse(Files.exists(uiPaths.getArchiveStoreDir().resolve(ArchiveStore.digest(war))));
+    }
+
+    @Test
+    public void testRejectedAddLeavesApplicationDirAlone() throws IOException {
+        // Only one archive may contain a server-init.cli
+        Path war = createWar("other.war", ConfigFileInspection.SERVER_INIT_CLI);
+
+        given()
+                .multiPart("file", war.toFile())
+                .when().post("/app/{appName}/archive", appName)
+                .then()
+                .statusCode(409);
+
+        assertFalse(Files.exists(uiPaths.getApplicationDir(appName).resolve("other.war")));
+        assertEquals(null, applicationRepo.findArchive(appName, "other.war"));
+        assertFalse(Files.exists(uiPaths.getArchiveStoreDir().resolve(ArchiveStore.digest(war))));
+    }
+
+    @Test
+    public void testReservedNamesAreRejected() {
+        for (String name : new String[]{"status", "deploy"}) {
+            given()
+                    .contentType("application/json")
+                    .body("{\"name\": \"" + name + "\"}")
+                    .when().post("/app")
+                    .then()
+                    .statusCode(400);
+        }
+    }
+
+    private Path createWar(String name, String... configFiles) throws IOException {
+        Path war = dir.resolve(name);
+        try (OutputStream out = Files.newOutputStream(war); ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+            zip.write(("<web-app id=\"" + appName + "\"/>").getBytes(StandardCharsets.UTF_8));
+            for (String configFile : configFiles) {
+                zip.putNextEntry(new ZipEntry(configFile));
+                zip.write("# config".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return war;
+    }
+}
@@ -0,0 +1,79 @@
+package org.wildfly.managed;
+
+import io.quarkus.test.common.http.TestHTTPResource;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.wildfly.managed.repo.TestApplications;
+
+import javax.inject.Inject;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpRequest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Drives the endpoints which run on the {@link BlockingExecutor} with 500 requests in flight at a time, against the
+ * OpenShift mock server, and logs the throughput and the memory and threads used. {@link WorkerPoolLoadTest} runs
+ * them on the worker pool, and {@link VirtualThreadsLoadTest} on virtual threads.
+ */
+public abstract class BlockingEndpointsLoadTest {
+    private static final Logger log = Logger.getLogger(BlockingEndpointsLoadTest.class);
+    static final int CONCURRENT_REQUESTS = 500;
+    static final int REQUESTS = 2_000;
+
+    @Inject
+    TestApplications testApplications;
+
+    @Inject
+    BlockingExecutor blockingExecutor;
+
+    @TestHTTPResource("/app")
+    URL appUrl;
+
+    String appName;
+
+    @BeforeEach
+    public void createApplication() {
+        appName = TestApplications.uniqueName("load");
+        testApplications.create(appName, 3, 2);
+    }
+
+    @AfterEach
+    public void deleteApplication() {
+        testApplications.delete(appName);
+    }
+
+    @Test
+    public void testBlockingEndpointsUnderLoad() throws InterruptedException {
+        LoadGenerator load = new LoadGenerator(CONCURRENT_REQUESTS);
+        String mode = blockingExecutor.isUsingVirtualThreads() ? "virtual threads" : "the worker pool";
+        // Warm up first
+        load.run(CONCURRENT_REQUESTS, i -> get(""));
+
+        // Served by Hibernate, mostly from the second-level cache
+        LoadGenerator.Result application = load.run(REQUESTS, i -> get(""));
+        LoadGenerator.Result archives = load.run(REQUESTS, i -> get("/archive"));
+        // Calls the OpenShift client
+        LoadGenerator.Result stop = load.run(REQUESTS, i -> LoadGenerator.request(uri("/stop"))
+                .PUT(HttpRequest.BodyPublishers.noBody())
+                .build());
+
+        log.infof("On %s, GET /app/{name}: %s", mode, application);
+        log.infof("On %s, GET /app/{name}/archive: %s", mode, archives);
+        log.infof("On %s, PUT /app/{name}/stop: %s", mode, stop);
+        assertEquals(0, application.getFailures());
+        assertEquals(0, archives.getFailures());
+        assertEquals(0, stop.getFailures());
+    }
+
+    HttpRequest get(String path) {
+        return LoadGenerator.request(uri(path)).GET().build();
+    }
+
+    URI uri(String path) {
+        return URI.create(appUrl + "/" + appName + path);
+    }
+}
@@ -0,0 +1,79 @@
+package org.wildfly.managed;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BlockingExecutorTest {
+
+    private BlockingExecutor executor;
+
+    @AfterEach
+    public void stop() {
+        if (executor != null) {
+            executor.stop(null);
+        }
+    }
+
+    @Test
+    public void testPlatformThreadsByDefault() throws InterruptedException {
+        executor = createExecutor(false);
+        assertFalse(executor.isUsingVirtualThreads());
+        assertPlatformThreads(executor.newThreadFactory("x-"));
+    }
+
+    @Test
+    public void testVirtualThreadsWhenSupported() throws InterruptedException {
+        executor = createExecutor(true);
+        boolean supported = isVirtualThreadSupported();
+        assertEquals(supported, executor.isUsingVirtualThreads());
+        if (supported) {
+            Thread thread = executor.newThreadFactory("x-").newThread(() -> {});
+            assertTrue(thread.getName().startsWith("x-"), thread.getName());
+            assertTrue(thread.isDaemon());
+        } else {
+            // Falls back to platform threads
+            assertPlatformThreads(executor.newThreadFactory("x-"));
+        }
+    }
+
+    private static BlockingExecutor createExecutor(boolean virtualThreadsEnabled) {
+        BlockingExecutor executor = new BlockingExecutor();
+        executor.virtualThreadsEnabled = virtualThreadsEnabled;
+        executor.init();
+        return executor;
+    }
+
+    private static void assertPlatformThreads(ThreadFactory factory) throws InterruptedException {
+        Thread first = factory.newThread(() -> {});
+        Thread second = factory.newThread(() -> {});
+        assertEquals("x-1", first.getName());
+        assertEquals("x-2", second.getName());
+        assertTrue(first.isDaemon());
+
+        // The threads run the task
+        boolean[] ran = new boolean[1];
+        Thread thread = factory.newThread(() -> ran[0] = true);
+        thread.start();
+        thread.join();
+        assertTrue(ran[0]);
+    }
+
+    private static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual").invoke(null);
+            return true;
+        } catch (InvocationTargetException e) {
+            // A preview feature which was not enabled
+            return false;
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+}
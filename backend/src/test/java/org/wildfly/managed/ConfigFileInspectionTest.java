@@ -0,0 +1,139 @@
+package org.wildfly.managed;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConfigFileInspectionTest {
+
+    private static final Logger log = Logger.getLogger(ConfigFileInspectionTest.class);
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 20;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testAllConfigFiles() throws IOException {
+        Path war = createWar("all.war",
+                ConfigFileInspection.SERVER_CONFIG_XML, ConfigFileInspection.SERVER_INIT_CLI, ConfigFileInspection.SERVER_INIT_YML);
+
+        ConfigFileInspection inspection = ConfigFileInspection.inspect(war);
+        assertTrue(inspection.isServerConfigXml());
+        assertTrue(inspection.isServerInitCli());
+        assertTrue(inspection.isServerInitYml());
+        assertTrue(inspection.hasConfigFiles());
+        // The file is closed again
+        Files.delete(war);
+    }
+
+    @Test
+    public void testSomeConfigFiles() throws IOException {
+        ConfigFileInspection inspection = ConfigFileInspection.inspect(createWar("cli.war", ConfigFileInspection.SERVER_INIT_CLI));
+        assertFalse(inspection.isServerConfigXml());
+        assertTrue(inspection.isServerInitCli());
+        assertFalse(inspection.isServerInitYml());
+        assertTrue(inspection.hasConfigFiles());
+    }
+
+    @Test
+    public void testOnlyTheKnownLocationsCount() throws IOException {
+        ConfigFileInspection inspection = ConfigFileInspection.inspect(createWar("none.war",
+                "META-INF/server-config.xml",
+                "WEB-INF/classes/server-init.cli",
+                "WEB-INF/classes/META-INF/server-init.yml.bak"));
+        assertFalse(inspection.hasConfigFiles());
+    }
+
+    @Test
+    public void testLookupVersusFullScan() throws IOException {
+        for (int entries : new int[]{1_000, 10_000, 50_000}) {
+            Path war = createWar("entries-" + entries + ".war", entries, ConfigFileInspection.SERVER_INIT_CLI);
+
+            ConfigFileInspection inspection = ConfigFileInspection.inspect(war);
+            assertTrue(inspection.isServerInitCli());
+            assertEquals(inspection.hasConfigFiles(), scanForConfigFiles(war));
+
+            double lookupMillis = averageMillis(() -> ConfigFileInspection.inspect(war));
+            double scanMillis = averageMillis(() -> scanForConfigFiles(war));
+            log.infof("%d entries: central directory lookup %.2f ms, full scan %.2f ms", entries, lookupMillis, scanMillis);
+            Files.delete(war);
+        }
+    }
+
+    /**
+     * How archives used to be inspected, going through all the entries
+     */
+    private static boolean scanForConfigFiles(Path war) throws IOException {
+        Set<String> configFiles = new HashSet<>(Arrays.asList(
+                ConfigFileInspection.SERVER_CONFIG_XML, ConfigFileInspection.SERVER_INIT_CLI, ConfigFileInspection.SERVER_INIT_YML));
+        try (JarFile jar = new JarFile(war.toFile())) {
+            return jar.stream().anyMatch(entry -> configFiles.contains(entry.getName()));
+        }
+    }
+
+    private static double averageMillis(Inspection inspection) throws IOException {
+        // Warm up first, like JMH would
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            inspection.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            inspection.run();
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / MEASURED_ITERATIONS;
+    }
+
+    private Path createWar(String name, int classes, String... configFiles) throws IOException {
+        Path war = dir.resolve(name);
+        try (OutputStream out = Files.newOutputStream(war); ZipOutputStream zip = new ZipOutputStream(out)) {
+            addEntry(zip, "WEB-INF/web.xml", "<web-app/>");
+            for (int i = 0; i < classes; i++) {
+                addEntry(zip, "WEB-INF/classes/org/example/App" + i + ".class", "class");
+            }
+            for (String configFile : configFiles) {
+                addEntry(zip, configFile, "config");
+            }
+        }
+        return war;
+    }
+
+    private interface Inspection {
+        void run() throws IOException;
+    }
+
+    private Path createWar(String name, String... configFiles) throws IOException {
+        Path war = dir.resolve(name);
+        try (OutputStream out = Files.newOutputStream(war); ZipOutputStream zip = new ZipOutputStream(out)) {
+            addEntry(zip, "WEB-INF/web.xml", "<web-app/>");
+            addEntry(zip, "WEB-INF/classes/org/example/App.class", "class");
+            for (String configFile : configFiles) {
+                addEntry(zip, configFile, "config");
+            }
+            addEntry(zip, "index.html", "<html/>");
+        }
+        return war;
+    }
+
+    private static void addEntry(ZipOutputStream zip, String name, String contents) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(contents.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,110 @@
+package org.wildfly.managed;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Sends requests to the backend under test with a fixed number in flight at a time, and measures the throughput and
+ * how much memory and how many threads the JVM used meanwhile. The tests run in the same JVM as the backend, so the
+ * numbers include the client.
+ */
+public class LoadGenerator {
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final int concurrency;
+
+    public LoadGenerator(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Sends the requests, waiting for all of them to complete
+     *
+     * @param requests the number of requests
+     * @param request creates the n-th request
+     * @return the measurements
+     */
+    public Result run(int requests, IntFunction<HttpRequest> request) throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        threads.resetPeakThreadCount();
+        AtomicLong peakHeap = new AtomicLong(heapBefore);
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                0, 10, TimeUnit.MILLISECONDS);
+
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicInteger failures = new AtomicInteger();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[requests];
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < requests; i++) {
+                inFlight.acquire();
+                futures[i] = client.sendAsync(request.apply(i), HttpResponse.BodyHandlers.discarding())
+                        .whenComplete((response, error) -> {
+                            inFlight.release();
+                            if (error != null || response.statusCode() >= 300) {
+                                failures.incrementAndGet();
+                            }
+                        });
+            }
+            CompletableFuture.allOf(futures).exceptionally(error -> null).join();
+        } finally {
+            sampler.shutdownNow();
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new Result(requests, failures.get(), millis, (peakHeap.get() - heapBefore) / (1024 * 1024), threads.getPeakThreadCount());
+    }
+
+    public static HttpRequest.Builder request(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(60));
+    }
+
+    public static class Result {
+        private final int requests;
+        private final int failures;
+        private final long millis;
+        private final long heapGrowthMb;
+        private final int peakThreads;
+
+        Result(int requests, int failures, long millis, long heapGrowthMb, int peakThreads) {
+            this.requests = requests;
+            this.failures = failures;
+            this.millis = millis;
+            this.heapGrowthMb = heapGrowthMb;
+            this.peakThreads = peakThreads;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public double getThroughput() {
+            return requests * 1000.0 / Math.max(millis, 1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests in %d ms (%.0f/s), %d failed, heap grew by up to %d MB, peak %d threads",
+                    requests, millis, getThroughput(), failures, heapGrowthMb, peakThreads);
+        }
+    }
+}
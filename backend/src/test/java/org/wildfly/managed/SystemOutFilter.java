@@ -0,0 +1,25 @@
+package org.wildfly.managed;
+
+import org.jboss.resteasy.reactive.server.ServerResponseFilter;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+
+/**
+ * When enabled, prints what the backend used to print to System.out when reading a config file, so that
+ * {@link SystemOutLoadTest} can compare the throughput with and without it. Disabled otherwise.
+ */
+public class SystemOutFilter {
+    static volatile boolean enabled;
+
+    @ServerResponseFilter
+    public void printConfigFileRead(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        if (!enabled || !requestContext.getUriInfo().getPath().endsWith("/config-file")) {
+            return;
+        }
+        System.out.println("---> get config");
+        System.out.println("---> config");
+        System.out.println("read cli!");
+        System.out.println("---> " + responseContext.getEntity());
+    }
+}
@@ -0,0 +1,88 @@
+package org.wildfly.managed;
+
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.wildfly.managed.repo.ApplicationRepo;
+import org.wildfly.managed.repo.TestApplications;
+
+import javax.inject.Inject;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpRequest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the throughput of reading a config file with and without the System.out printing the backend used to do
+ * for it, with {@link BlockingEndpointsLoadTest#CONCURRENT_REQUESTS} requests in flight at a time. The backend now
+ * logs through JBoss Logging at DEBUG instead, which is off by default.
+ */
+@QuarkusTest
+public class SystemOutLoadTest {
+    private static final Logger log = Logger.getLogger(SystemOutLoadTest.class);
+    private static final int ROUNDS = 3;
+
+    @Inject
+    TestApplications testApplications;
+
+    @Inject
+    ApplicationRepo applicationRepo;
+
+    @TestHTTPResource("/app")
+    URL appUrl;
+
+    private String appName;
+
+    @BeforeEach
+    public void createApplication() {
+        appName = TestApplications.uniqueName("system-out");
+        testApplications.create(appName, 1, 0);
+        StringBuilder cli = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            cli.append("/subsystem=logging/logger=org.example.category").append(i).append(":add(level=DEBUG)\n");
+        }
+        applicationRepo.setConfigFileContents(appName, "cli", cli.toString());
+    }
+
+    @AfterEach
+    public void deleteApplication() {
+        SystemOutFilter.enabled = false;
+        testApplications.delete(appName);
+    }
+
+    @Test
+    public void testThroughputWithoutSystemOut() throws InterruptedException {
+        LoadGenerator load = new LoadGenerator(BlockingEndpointsLoadTest.CONCURRENT_REQUESTS);
+        URI uri = URI.create(appUrl + "/" + appName + "/config-file?type=cli");
+        // Warm up first
+        load.run(BlockingEndpointsLoadTest.REQUESTS, i -> getConfigFile(uri));
+
+        // Alternate between the two, and keep the best run of each, so that the JIT and GC even out
+        LoadGenerator.Result quiet = null;
+        LoadGenerator.Result printing = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            quiet = best(quiet, load.run(BlockingEndpointsLoadTest.REQUESTS, i -> getConfigFile(uri)));
+            SystemOutFilter.enabled = true;
+            printing = best(printing, load.run(BlockingEndpointsLoadTest.REQUESTS, i -> getConfigFile(uri)));
+            SystemOutFilter.enabled = false;
+        }
+
+        log.infof("GET /app/{name}/config-file with System.out: %s", printing);
+        log.infof("GET /app/{name}/config-file without System.out: %s", quiet);
+        log.infof("Throughput without System.out is %.2f times that with it", quiet.getThroughput() / printing.getThroughput());
+        assertEquals(0, quiet.getFailures());
+        assertEquals(0, printing.getFailures());
+    }
+
+    private static LoadGenerator.Result best(LoadGenerator.Result best, LoadGenerator.Result result) {
+        return best == null || result.getThroughput() > best.getThroughput() ? result : best;
+    }
+
+    private static HttpRequest getConfigFile(URI uri) {
+        return LoadGenerator.request(uri).GET().build();
+    }
+}
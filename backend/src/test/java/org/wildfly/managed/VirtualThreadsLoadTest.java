@@ -0,0 +1,25 @@
+package org.wildfly.managed;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.kubernetes.client.WithOpenShiftTestServer;
+
+import java.util.Map;
+
+/**
+ * Runs the {@link BlockingEndpointsLoadTest} with virtual threads enabled. On a JVM without virtual threads the
+ * {@link BlockingExecutor} falls back to the worker pool, which the log shows.
+ */
+@QuarkusTest
+@WithOpenShiftTestServer(crud = true)
+@TestProfile(VirtualThreadsLoadTest.Profile.class)
+public class VirtualThreadsLoadTest extends BlockingEndpointsLoadTest {
+
+    public static class Profile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("managed.server.virtual-threads.enabled", "true");
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.wildfly.managed;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.kubernetes.client.WithOpenShiftTestServer;
+
+/**
+ * Runs the {@link BlockingEndpointsLoadTest} on the worker pool, which is the default
+ */
+@QuarkusTest
+@WithOpenShiftTestServer(crud = true)
+public class WorkerPoolLoadTest extends BlockingEndpointsLoadTest {
+}
@@ -0,0 +1,81 @@
+package org.wildfly.managed.deploy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BuildLimiterTest {
+
+    private BuildLimiter limiter;
+
+    @BeforeEach
+    public void setup() {
+        limiter = new BuildLimiter();
+        limiter.maxConcurrentBuilds = 2;
+    }
+
+    @Test
+    public void testApplicationsCountOnceAgainstTheLimit() {
+        assertTrue(limiter.tryAcquire("a"));
+        assertTrue(limiter.tryAcquire("b"));
+        assertFalse(limiter.tryAcquire("c"));
+
+        // Redeploying a building application
+        assertTrue(limiter.tryAcquire("a"));
+        limiter.release("a");
+        assertFalse(limiter.tryAcquire("c"));
+
+        limiter.release("a");
+        assertTrue(limiter.tryAcquire("c"));
+    }
+
+    @Test
+    public void testReleaseWithoutSlotIsIgnored() {
+        limiter.release("a");
+        assertTrue(limiter.tryAcquire("a"));
+        assertTrue(limiter.tryAcquire("b"));
+        limiter.release("c");
+        assertFalse(limiter.tryAcquire("c"));
+    }
+
+    @Test
+    public void testWaitersAreWokenWhenASlotIsGivenBack() {
+        AtomicInteger woken = new AtomicInteger();
+        limiter.whenAvailable(woken::incrementAndGet);
+        assertEquals(1, woken.get(), "There is a free slot");
+
+        limiter.tryAcquire("a");
+        limiter.tryAcquire("a");
+        limiter.tryAcquire("b");
+        limiter.whenAvailable(woken::incrementAndGet);
+        limiter.whenAvailable(woken::incrementAndGet);
+        assertEquals(1, woken.get());
+
+        // Still holds a slot
+        limiter.release("a");
+        assertEquals(1, woken.get());
+
+        limiter.release("a");
+        assertEquals(3, woken.get());
+
+        // Only woken once
+        limiter.release("b");
+        assertEquals(3, woken.get());
+    }
+
+    @Test
+    public void testNoLimit() {
+        limiter.maxConcurrentBuilds = 0;
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire("app-" + i));
+        }
+        AtomicInteger woken = new AtomicInteger();
+        limiter.whenAvailable(woken::incrementAndGet);
+        assertEquals(1, woken.get());
+    }
+}
@@ -0,0 +1,86 @@
+package org.wildfly.managed.openshift;
+
+import io.fabric8.kubernetes.api.model.apps.Deployment;
+import io.fabric8.kubernetes.api.model.apps.DeploymentBuilder;
+import io.fabric8.openshift.client.server.mock.OpenShiftServer;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.kubernetes.client.OpenShiftTestServer;
+import io.quarkus.test.kubernetes.client.WithOpenShiftTestServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.wildfly.managed.common.model.DeploymentRecord;
+import org.wildfly.managed.common.value.AppState;
+import org.wildfly.managed.repo.TestApplications;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@QuarkusTest
+@WithOpenShiftTestServer(crud = true)
+public class AppStatusWatcherTest {
+
+    @OpenShiftTestServer
+    OpenShiftServer openShiftServer;
+
+    @Inject
+    AppStatusWatcher appStatusWatcher;
+
+    @Inject
+    TestApplications testApplications;
+
+    private String appName;
+
+    @BeforeEach
+    public void createApplication() {
+        appName = TestApplications.uniqueName("watched");
+        testApplications.create(appName, 1, 0);
+    }
+
+    @AfterEach
+    public void deleteApplication() {
+        openShiftServer.getOpenshiftClient().apps().deployments().withName(appName).delete();
+        testApplications.delete(appName);
+    }
+
+    @Test
+    public void testWatchDeployedApplication() {
+        // Deployed after the application was created, so nothing is staged
+        testApplications.addDeploymentRecord(appName, DeploymentRecord.Status.COMPLETED, LocalDateTime.now().plusMinutes(1));
+        createDeployment(1, 1);
+
+        AppState state = appStatusWatcher.watch(appName).toUni().await().atMost(Duration.ofSeconds(10));
+
+        assertEquals(AppState.DeploymentState.RUNNING, state.getDeploymentState());
+        assertEquals(AppState.BuildState.NOT_RUNNING, state.getBuildState());
+        assertEquals(AppState.StageState.UP_TO_DATE, state.getStageState());
+    }
+
+    @Test
+    public void testWatchDeployingApplicationWithStagedChanges() {
+        testApplications.addDeploymentRecord(appName, DeploymentRecord.Status.COMPLETED, LocalDateTime.now().minusDays(1));
+        createDeployment(2, 1);
+
+        AppState state = appStatusWatcher.watch(appName).toUni().await().atMost(Duration.ofSeconds(10));
+
+        assertEquals(AppState.DeploymentState.DEPLOYING, state.getDeploymentState());
+        assertEquals(AppState.StageState.STAGED_CHANGES, state.getStageState());
+    }
+
+    private void createDeployment(int replicas, int readyReplicas) {
+        Deployment deployment = new DeploymentBuilder()
+                .withNewMetadata()
+                    .withName(appName)
+                    .addToLabels("app", appName)
+                .endMetadata()
+                .withNewStatus()
+                    .withReplicas(replicas)
+                    .withReadyReplicas(readyReplicas)
+                .endStatus()
+                .build();
+        openShiftServer.getOpenshiftClient().apps().deployments().create(deployment);
+    }
+}
@@ -0,0 +1,81 @@
+package org.wildfly.managed.openshift;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.wildfly.managed.common.model.AppArchive;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class BuildContextDeltaTest {
+
+    @Test
+    public void testArchiveDigestsAreSorted() {
+        String digests = BuildContextDelta.toArchiveDigests(Arrays.asList(archive("b.war", "2"), archive("a.war", "1")));
+        assertEquals("a.war=1\nb.war=2\n", digests);
+    }
+
+    @Test
+    public void testArchiveDigestsUnknownIfAnArchiveHasNoDigest() {
+        assertNull(BuildContextDelta.toArchiveDigests(Arrays.asList(archive("a.war", "1"), archive("b.war", null))));
+    }
+
+    @Test
+    public void testNoPreviousDigests() {
+        assertNull(BuildContextDelta.compute(null, "a.war=1\n"));
+        assertNull(BuildContextDelta.compute("a.war=1\n", null));
+    }
+
+    @Test
+    public void testUnchanged() throws IOException {
+        BuildContextDelta delta = BuildContextDelta.compute("a.war=1\nb.war=2\n", "a.war=1\nb.war=2\n");
+        assertNotNull(delta);
+        assertEquals(0, delta.getChangedCount());
+        assertEquals(2, delta.getArchiveCount());
+    }
+
+    @Test
+    public void testChangedAddedAndRemoved(@TempDir Path appDir) throws IOException {
+        for (String file : new String[]{"changed.war", "added.war", "unchanged.war", "server-init.cli"}) {
+            Files.write(appDir.resolve(file), file.getBytes(StandardCharsets.UTF_8));
+        }
+
+        BuildContextDelta delta = BuildContextDelta.compute(
+                "changed.war=1\nremoved.war=2\nunchanged.war=3\n",
+                "added.war=4\nchanged.war=5\nunchanged.war=3\n");
+        assertNotNull(delta);
+        assertEquals(2, delta.getChangedCount());
+        assertEquals(3, delta.getArchiveCount());
+
+        Path[] includes = delta.writeManifest(appDir);
+        Set<String> names = new TreeSet<>();
+        for (Path include : includes) {
+            names.add(appDir.relativize(include).toString());
+        }
+        assertEquals(new TreeSet<>(Arrays.asList("added.war", "changed.war", "server-init.cli", BuildContextDelta.MANIFEST)), names);
+
+        Properties manifest = new Properties();
+        manifest.load(new StringReader(Files.readString(appDir.resolve(BuildContextDelta.MANIFEST))));
+        assertEquals("true", manifest.getProperty("incremental"));
+        assertEquals("added.war,changed.war", manifest.getProperty("changed"));
+        assertEquals("removed.war", manifest.getProperty("removed"));
+    }
+
+    private static AppArchive archive(String fileName, String digest) {
+        AppArchive archive = new AppArchive();
+        archive.fileName = fileName;
+        archive.digest = digest;
+        return archive;
+    }
+}
@@ -0,0 +1,163 @@
+package org.wildfly.managed.openshift;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+public class PackagingTest {
+    private static final Logger log = Logger.getLogger(PackagingTest.class);
+
+    @TempDir
+    Path appDir;
+
+    @Test
+    public void testStreamedTarballMatchesPackagedFile() throws IOException {
+        Random random = new Random(1);
+        // Bigger and smaller than the pipe, so that the pipe wraps around
+        for (int size : new int[]{0, 1, 1000, 300 * 1024, 2 * 1024 * 1024}) {
+            byte[] contents = new byte[size];
+            random.nextBytes(contents);
+            Files.write(appDir.resolve("app-" + size + ".war"), contents);
+        }
+        Files.writeString(appDir.resolve("standalone.xml"), "<server/>", StandardCharsets.UTF_8);
+        Path nested = Files.createDirectories(appDir.resolve("extensions"));
+        Files.writeString(nested.resolve("install.sh"), "#!/bin/sh", StandardCharsets.UTF_8);
+        nested.resolve("install.sh").toFile().setExecutable(true);
+
+        Map<String, TarEntry> streamed;
+        try (InputStream in = Packaging.streamFile(appDir, appDir)) {
+            streamed = readEntries(in);
+        }
+        File tarBall = Packaging.packageFile(appDir, appDir);
+        Map<String, TarEntry> packaged;
+        try (InputStream in = Files.newInputStream(tarBall.toPath())) {
+            packaged = readEntries(in);
+        } finally {
+            Files.delete(tarBall.toPath());
+        }
+
+        assertEquals(7, packaged.size());
+        assertEquals(packaged.keySet(), streamed.keySet());
+        for (Map.Entry<String, TarEntry> entry : packaged.entrySet()) {
+            TarEntry expected = entry.getValue();
+            TarEntry actual = streamed.get(entry.getKey());
+            assertEquals(expected.mode, actual.mode, entry.getKey());
+            assertArrayEquals(expected.contents, actual.contents, entry.getKey());
+            assertArrayEquals(Files.readAllBytes(appDir.resolve(entry.getKey())), actual.contents, entry.getKey());
+        }
+    }
+
+    @Test
+    public void testStreamedTarballCanBeClosedEarly() throws IOException, InterruptedException {
+        byte[] contents = new byte[4 * 1024 * 1024];
+        Files.write(appDir.resolve("app.war"), contents);
+
+        // The writer thread gives up rather than waiting for a reader which has gone away
+        Thread writer;
+        try (InputStream in = Packaging.streamFile(appDir, appDir)) {
+            assertEquals(1024, in.readNBytes(1024).length);
+            writer = findThread("packaging-" + appDir.getFileName());
+            assertNotNull(writer);
+        }
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(writer.isAlive());
+    }
+
+    @Test
+    public void testStreamingVersusTempFile() throws IOException {
+        Random random = new Random(1);
+        for (int i = 0; i < 4; i++) {
+            byte[] contents = new byte[16 * 1024 * 1024];
+            random.nextBytes(contents);
+            Files.write(appDir.resolve("app-" + i + ".war"), contents);
+        }
+        Path tempDir = Path.of(Packaging.DEFAULT_TEMP_DIR);
+
+        long start = System.nanoTime();
+        long streamedBytes;
+        long streamedTempFiles;
+        try (InputStream in = Packaging.streamFile(appDir, appDir)) {
+            streamedBytes = in.transferTo(OutputStream.nullOutputStream());
+            streamedTempFiles = countTempFiles(tempDir);
+        }
+        long streamedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        long tempFilesBefore = countTempFiles(tempDir);
+        start = System.nanoTime();
+        long packagedBytes;
+        File tarBall = Packaging.packageFile(appDir, appDir);
+        try (InputStream in = Files.newInputStream(tarBall.toPath())) {
+            // The temp file is on disk while it is sent
+            assertEquals(tempFilesBefore + 1, countTempFiles(tempDir));
+            packagedBytes = in.transferTo(OutputStream.nullOutputStream());
+        } finally {
+            Files.delete(tarBall.toPath());
+        }
+        long packagedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        log.infof("Streamed %d bytes in %d ms, writing 0 bytes to disk", streamedBytes, streamedMillis);
+        log.infof("Packaged %d bytes in %d ms, writing %d bytes to disk", packagedBytes, packagedMillis, packagedBytes);
+        assertEquals(packagedBytes, streamedBytes);
+        // Streaming did not add a tarball of its own
+        assertEquals(tempFilesBefore, streamedTempFiles);
+    }
+
+    private static long countTempFiles(Path tempDir) throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files
+                    .map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(Packaging.DOCKER_PREFIX) && name.endsWith(Packaging.BZIP2_SUFFIX))
+                    .count();
+        }
+    }
+
+    private static Thread findThread(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name)) {
+                return thread;
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, TarEntry> readEntries(InputStream in) throws IOException {
+        Map<String, TarEntry> entries = new TreeMap<>();
+        TarArchiveInputStream tin = new TarArchiveInputStream(in);
+        for (TarArchiveEntry entry = tin.getNextTarEntry(); entry != null; entry = tin.getNextTarEntry()) {
+            byte[] contents = tin.readAllBytes();
+            assertEquals(entry.getSize(), contents.length, entry.getName());
+            entries.put(entry.getName(), new TarEntry(entry.getMode(), contents));
+        }
+        return entries;
+    }
+
+    private static class TarEntry {
+        private final int mode;
+        private final byte[] contents;
+
+        TarEntry(int mode, byte[] contents) {
+            this.mode = mode;
+            this.contents = contents;
+        }
+    }
+}
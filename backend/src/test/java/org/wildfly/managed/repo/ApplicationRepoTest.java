@@ -0,0 +1,216 @@
+package org.wildfly.managed.repo;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.wildfly.managed.ServerException;
+import org.wildfly.managed.common.model.AppArchive;
+import org.wildfly.managed.common.model.Application;
+import org.wildfly.managed.common.model.DatabaseConnection;
+import org.wildfly.managed.common.model.DeployJob;
+import org.wildfly.managed.common.model.DeploymentRecord;
+import org.wildfly.managed.common.model.DeploymentStats;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.ws.rs.core.Response;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+public class ApplicationRepoTest {
+    private static final Logger log = Logger.getLogger(ApplicationRepoTest.class);
+    private static final int HISTORY_ENTRIES = 10_000;
+
+    @Inject
+    ApplicationRepo applicationRepo;
+
+    @Inject
+    TestApplications testApplications;
+
+    @Inject
+    DeployJobRepo deployJobRepo;
+
+    @Inject
+    SessionFactory sessionFactory;
+
+    @Inject
+    EntityManager entityManager;
+
+    private String appName;
+
+    @BeforeEach
+    public void createApplication() {
+        appName = TestApplications.uniqueName("snapshot");
+        testApplications.create(appName, 3, 2);
+    }
+
+    @AfterEach
+    public void deleteApplication() {
+        testApplications.delete(appName);
+    }
+
+    @Test
+    public void testLoadSnapshotStatementCount() {
+        // Nothing comes from the second-level cache
+        sessionFactory.getCache().evictAllRegions();
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.clear();
+
+        ApplicationSnapshot snapshot = applicationRepo.loadSnapshot(appName);
+
+        // The application with its archives, its connections, and its config contents. Not one per archive or
+        // connection
+        assertEquals(3, statistics.getPrepareStatementCount());
+
+        assertEquals(appName, snapshot.getName());
+        assertEquals(Arrays.asList("archive-0.war", "archive-1.war", "archive-2.war"),
+                snapshot.getArchives().stream().map(archive -> archive.fileName).collect(Collectors.toList()));
+        List<String> jndiNames = snapshot.getDatabaseConnections().stream()
+                .map(connection -> connection.jndiName)
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList("java:jboss/datasources/ds-0", "java:jboss/datasources/ds-1"), jndiNames);
+        for (AppArchive archive : snapshot.getArchives()) {
+            assertEquals(archive.fileName.equals("archive-0.war"), archive.serverInitCli);
+        }
+        for (DatabaseConnection connection : snapshot.getDatabaseConnections()) {
+            assertEquals(DatabaseConnection.Type.POSTGRES, connection.type);
+        }
+        assertEquals(null, snapshot.getConfigs().getXml());
+    }
+
+    @Test
+    public void testDeleteRemovesChildren() {
+        String deletedName = TestApplications.uniqueName("deleted");
+        long deletedId = testApplications.create(deletedName, 2, 2).id;
+        long keptId = applicationRepo.findByName(appName).id;
+        for (String name : Arrays.asList(deletedName, appName)) {
+            testApplications.addDeploymentRecord(name, DeploymentRecord.Status.COMPLETED, LocalDateTime.now().minusDays(1));
+            testApplications.addDeploymentRecord(name, null, LocalDateTime.now());
+            QuarkusTransaction.run(() -> {
+                DeploymentStats stats = new DeploymentStats();
+                stats.application = applicationRepo.findByName(name);
+                stats.statsDate = LocalDate.now().minusDays(30);
+                stats.completed = 1;
+                stats.persist();
+            });
+            long jobId = deployJobRepo.create(name, false, false).id;
+            deployJobRepo.startStage(jobId, "prepare");
+            deployJobRepo.startStage(jobId, "helm");
+        }
+        Map<String, Long> keptCounts = countChildren(keptId);
+        assertEquals(countChildren(deletedId).keySet(), keptCounts.keySet());
+
+        List<String> digests = QuarkusTransaction.call(() -> applicationRepo.delete(deletedName));
+
+        assertEquals(Arrays.asList("digest-0", "digest-1"), digests.stream().sorted().collect(Collectors.toList()));
+        for (Map.Entry<String, Long> count : countChildren(deletedId).entrySet()) {
+            assertEquals(0L, count.getValue(), count.getKey());
+        }
+        // The other application is left alone
+        assertEquals(keptCounts, countChildren(keptId));
+        for (long count : keptCounts.values()) {
+            assertTrue(count > 0);
+        }
+        ServerException e = assertThrows(ServerException.class, () -> applicationRepo.findByName(deletedName));
+        assertEquals(Response.Status.NOT_FOUND, e.getStatus());
+    }
+
+    @Test
+    public void testDeleteLargeHistory() {
+        String bulkName = TestApplications.uniqueName("bulk");
+        String oneByOneName = TestApplications.uniqueName("one-by-one");
+        for (String name : Arrays.asList(bulkName, oneByOneName)) {
+            testApplications.create(name, 2, 2);
+            testApplications.addHistory(name, HISTORY_ENTRIES);
+        }
+        long bulkId = applicationRepo.findByName(bulkName).id;
+        long oneByOneId = applicationRepo.findByName(oneByOneName).id;
+        Statistics statistics = sessionFactory.getStatistics();
+
+        statistics.clear();
+        long start = System.nanoTime();
+        List<String> digests = QuarkusTransaction.call(() -> applicationRepo.delete(bulkName));
+        long bulkMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long bulkStatements = statistics.getPrepareStatementCount();
+
+        statistics.clear();
+        start = System.nanoTime();
+        List<String> oneByOneDigests = QuarkusTransaction.call(() -> deleteOneByOne(oneByOneName));
+        long oneByOneMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long oneByOneStatements = statistics.getPrepareStatementCount();
+
+        log.infof("Deleting an application with %d history entries: bulk %d statements in %d ms, one by one %d statements in %d ms",
+                HISTORY_ENTRIES, bulkStatements, bulkMillis, oneByOneStatements, oneByOneMillis);
+        assertEquals(oneByOneDigests.stream().sorted().collect(Collectors.toList()), digests.stream().sorted().collect(Collectors.toList()));
+        for (long id : Arrays.asList(bulkId, oneByOneId)) {
+            for (Map.Entry<String, Long> count : countChildren(id).entrySet()) {
+                assertEquals(0L, count.getValue(), count.getKey());
+            }
+        }
+        // Does not depend on the size of the history
+        assertTrue(bulkStatements < 20, "Statements: " + bulkStatements);
+        assertTrue(bulkStatements < oneByOneStatements);
+    }
+
+    /**
+     * How applications used to be deleted, loading the archives, connections and deploy jobs and deleting them one
+     * at a time
+     */
+    private List<String> deleteOneByOne(String name) {
+        Application app = applicationRepo.findByName(name);
+        List<String> digests = new ArrayList<>();
+        for (AppArchive archive : app.appArchives) {
+            digests.add(archive.digest);
+            archive.application = null;
+            archive.delete();
+        }
+        DeploymentRecord.delete("application", app);
+        DeploymentStats.delete("application", app);
+        for (DatabaseConnection connection : app.dbConnections) {
+            connection.application = null;
+            connection.delete();
+        }
+        for (DeployJob job : DeployJob.<DeployJob>list("application", app)) {
+            job.application = null;
+            job.delete();
+        }
+        applicationRepo.delete(app);
+        return digests;
+    }
+
+    private Map<String, Long> countChildren(long applicationId) {
+        Map<String, Long> counts = new TreeMap<>();
+        QuarkusTransaction.run(() -> {
+            for (String table : Arrays.asList("application", "apparchive", "databaseconnection", "deploymentrecord", "deploymentstats", "deployjob")) {
+                String column = table.equals("application") ? "id" : "application_id";
+                counts.put(table, count("SELECT COUNT(*) FROM " + table + " WHERE " + column + " = :id", applicationId));
+            }
+            counts.put("deployjob_stages", count("SELECT COUNT(*) FROM deployjob_stages WHERE deployjob_id IN " +
+                    "(SELECT id FROM deployjob WHERE application_id = :id)", applicationId));
+        });
+        return counts;
+    }
+
+    private long count(String sql, long applicationId) {
+        return ((Number) entityManager.createNativeQuery(sql)
+                .setParameter("id", applicationId)
+                .getSingleResult()).longValue();
+    }
+}
@@ -0,0 +1,45 @@
+package org.wildfly.managed.repo;
+
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the indexes of the generated schema, and the partial index created by {@link DatabaseIndexes}
+ */
+@QuarkusTest
+public class DatabaseIndexesTest {
+
+    @Inject
+    EntityManager entityManager;
+
+    @Test
+    public void testDeploymentRecordIndexes() {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = entityManager.createNativeQuery(
+                "SELECT indexname, indexdef FROM pg_indexes WHERE tablename = 'deploymentrecord'")
+                .getResultList();
+        Map<String, String> indexes = new HashMap<>();
+        for (Object[] row : rows) {
+            indexes.put((String) row[0], ((String) row[1]).toLowerCase());
+        }
+
+        assertIndex(indexes, "deploymentrecord_app_end_idx", "(application_id, endtime)");
+        assertIndex(indexes, "deploymentrecord_app_status_start_idx", "(application_id, status, starttime desc)");
+        assertIndex(indexes, "deploymentrecord_running_idx", "(application_id) where (endtime is null)");
+    }
+
+    private static void assertIndex(Map<String, String> indexes, String name, String columns) {
+        String definition = indexes.get(name);
+        assertNotNull(definition, "No index " + name + " in " + indexes.keySet());
+        assertTrue(definition.endsWith(columns), definition);
+    }
+}
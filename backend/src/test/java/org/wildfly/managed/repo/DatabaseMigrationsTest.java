@@ -0,0 +1,64 @@
+package org.wildfly.managed.repo;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+import org.wildfly.managed.common.model.DeploymentRecord;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@QuarkusTest
+public class DatabaseMigrationsTest {
+
+    @Inject
+    DatabaseMigrations databaseMigrations;
+
+    @Inject
+    TestApplications testApplications;
+
+    @Inject
+    EntityManager entityManager;
+
+    @Test
+    public void testDeploymentRecordStatusOrdinalsAreConvertedToNames() {
+        String appName = TestApplications.uniqueName("migration");
+        testApplications.create(appName, 1, 0);
+        try {
+            long completed = testApplications.addDeploymentRecord(appName, DeploymentRecord.Status.COMPLETED, LocalDateTime.now()).id;
+            long cancelled = testApplications.addDeploymentRecord(appName, DeploymentRecord.Status.CANCELLED, LocalDateTime.now()).id;
+            long running = testApplications.addDeploymentRecord(appName, null, LocalDateTime.now()).id;
+
+            QuarkusTransaction.run(() -> {
+                // Put the column back to how it was when the status was mapped by ordinal
+                entityManager.createNativeQuery("ALTER TABLE deploymentrecord ALTER COLUMN status TYPE INTEGER USING " +
+                        "CASE status WHEN 'FAILED' THEN 0 WHEN 'CANCELLED' THEN 1 WHEN 'COMPLETED' THEN 2 END")
+                        .executeUpdate();
+                assertEquals("integer", getStatusColumnType());
+
+                databaseMigrations.migrateDeploymentRecordStatus();
+                assertEquals("character varying", getStatusColumnType());
+                // Already migrated
+                databaseMigrations.migrateDeploymentRecordStatus();
+            });
+
+            QuarkusTransaction.run(() -> {
+                assertEquals(DeploymentRecord.Status.COMPLETED, DeploymentRecord.<DeploymentRecord>findById(completed).status);
+                assertEquals(DeploymentRecord.Status.CANCELLED, DeploymentRecord.<DeploymentRecord>findById(cancelled).status);
+                assertEquals(null, DeploymentRecord.<DeploymentRecord>findById(running).status);
+            });
+        } finally {
+            testApplications.delete(appName);
+        }
+    }
+
+    private String getStatusColumnType() {
+        return (String) entityManager.createNativeQuery(
+                "SELECT data_type FROM information_schema.columns " +
+                        "WHERE table_name = 'deploymentrecord' AND column_name = 'status'")
+                .getSingleResult();
+    }
+}
@@ -0,0 +1,130 @@
+package org.wildfly.managed.repo;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.wildfly.managed.common.model.DeploymentRecord;
+import org.wildfly.managed.common.model.DeploymentStats;
+
+import javax.inject.Inject;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the retention rules of {@link DeploymentHistoryRepo#compact}. The test profile uses a page size of 2, so
+ * compacting more than two records takes several pages.
+ */
+@QuarkusTest
+public class DeploymentHistoryRepoTest {
+
+    @Inject
+    DeploymentHistoryRepo deploymentHistoryRepo;
+
+    @Inject
+    ApplicationRepo applicationRepo;
+
+    @Inject
+    TestApplications testApplications;
+
+    private String appName;
+    private LocalDateTime now;
+
+    @BeforeEach
+    public void createApplication() {
+        appName = TestApplications.uniqueName("history");
+        testApplications.create(appName, 0, 0);
+        // Midday, so that all the records of a day have the same date
+        now = LocalDateTime.now().withHour(12).withMinute(0).withSecond(0).withNano(0);
+    }
+
+    @AfterEach
+    public void deleteApplication() {
+        testApplications.delete(appName);
+    }
+
+    @Test
+    public void testKeep() {
+        long running = addRecord(null, 0);
+        long completed = addRecord(DeploymentRecord.Status.COMPLETED, 1);
+        long failed = addRecord(DeploymentRecord.Status.FAILED, 2);
+        addRecord(DeploymentRecord.Status.CANCELLED, 3);
+        addRecord(DeploymentRecord.Status.COMPLETED, 3);
+        addRecord(DeploymentRecord.Status.FAILED, 4);
+        addRecord(DeploymentRecord.Status.FAILED, 5);
+
+        deploymentHistoryRepo.setRetention(appName, 3, 0);
+        assertEquals(4, deploymentHistoryRepo.compact(appName, 0, 0));
+        assertEquals(Set.of(running, completed, failed), getRecordIds());
+
+        List<DeploymentStats> stats = deploymentHistoryRepo.getStats(appName);
+        assertEquals(3, stats.size());
+        assertStats(stats.get(0), 5, 0, 1, 0);
+        assertStats(stats.get(1), 4, 0, 1, 0);
+        assertStats(stats.get(2), 3, 1, 0, 1);
+
+        // Nothing more to do
+        assertEquals(0, deploymentHistoryRepo.compact(appName, 0, 0));
+    }
+
+    @Test
+    public void testMaxAge() {
+        long completed = addRecord(DeploymentRecord.Status.COMPLETED, 5);
+        long cancelled = addRecord(DeploymentRecord.Status.CANCELLED, 9);
+        addRecord(DeploymentRecord.Status.FAILED, 11);
+        addRecord(DeploymentRecord.Status.COMPLETED, 20);
+        addRecord(DeploymentRecord.Status.FAILED, 20);
+        addRecord(DeploymentRecord.Status.FAILED, 20);
+
+        // The default is used when the application does not say
+        assertEquals(4, deploymentHistoryRepo.compact(appName, 0, 10));
+        assertEquals(Set.of(completed, cancelled), getRecordIds());
+
+        List<DeploymentStats> stats = deploymentHistoryRepo.getStats(appName);
+        assertEquals(2, stats.size());
+        assertStats(stats.get(0), 20, 1, 2, 0);
+        assertStats(stats.get(1), 11, 0, 1, 0);
+    }
+
+    @Test
+    public void testLastCompletedIsAlwaysKept() {
+        long failed = addRecord(DeploymentRecord.Status.FAILED, 1);
+        addRecord(DeploymentRecord.Status.FAILED, 2);
+        long completed = addRecord(DeploymentRecord.Status.COMPLETED, 30);
+        addRecord(DeploymentRecord.Status.COMPLETED, 31);
+        addRecord(DeploymentRecord.Status.CANCELLED, 32);
+
+        deploymentHistoryRepo.setRetention(appName, 1, 10);
+        assertEquals(3, deploymentHistoryRepo.compact(appName, 100, 90));
+        assertEquals(Set.of(failed, completed), getRecordIds());
+    }
+
+    private long addRecord(DeploymentRecord.Status status, int daysAgo) {
+        return testApplications.addDeploymentRecord(appName, status, now.minusDays(daysAgo)).id;
+    }
+
+    private Set<Long> getRecordIds() {
+        return QuarkusTransaction.call(() -> DeploymentRecord.<DeploymentRecord>list("application", applicationRepo.findByName(appName))
+                .stream()
+                .map(record -> record.id)
+                .collect(Collectors.toCollection(TreeSet::new)));
+    }
+
+    private void assertStats(DeploymentStats stats, int daysAgo, int completed, int failed, int cancelled) {
+        int records = completed + failed + cancelled;
+        assertEquals(now.minusDays(daysAgo).toLocalDate(), stats.statsDate);
+        assertEquals(completed, stats.completed);
+        assertEquals(failed, stats.failed);
+        assertEquals(cancelled, stats.cancelled);
+        assertEquals(records, stats.buildsTriggered);
+        // Each record takes two minutes
+        assertEquals(records * 120_000L, stats.totalDurationMillis);
+        assertEquals(120_000L, stats.maxDurationMillis);
+    }
+}
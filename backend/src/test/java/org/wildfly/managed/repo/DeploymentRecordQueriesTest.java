@@ -0,0 +1,123 @@
+package org.wildfly.managed.repo;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.wildfly.managed.common.model.DeploymentRecord;
+import org.wildfly.managed.common.value.AppState;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the deployment record lookups against a history of a million records, which is where a missing index
+ * shows. The plans and latencies are logged.
+ */
+@QuarkusTest
+public class DeploymentRecordQueriesTest {
+    private static final Logger log = Logger.getLogger(DeploymentRecordQueriesTest.class);
+    private static final int APPLICATIONS = 100;
+    private static final int RECORDS_PER_APPLICATION = 10_000;
+    private static final int ITERATIONS = 200;
+
+    @Inject
+    ApplicationRepo applicationRepo;
+
+    @Inject
+    TestApplications testApplications;
+
+    @Inject
+    EntityManager entityManager;
+
+    private final List<String> appNames = new ArrayList<>();
+    private long applicationId;
+
+    @BeforeEach
+    public void createHistory() {
+        String prefix = TestApplications.uniqueName("history");
+        for (int i = 0; i < APPLICATIONS; i++) {
+            String name = prefix + "-" + i;
+            testApplications.create(name, 1, 0);
+            appNames.add(name);
+        }
+        long start = System.nanoTime();
+        QuarkusTransaction.run(() -> {
+            // One in ten failed or cancelled, all of them before the changes to the applications
+            entityManager.createNativeQuery(
+                    "INSERT INTO deploymentrecord (id, application_id, buildtriggered, starttime, endtime, status) " +
+                            "SELECT nextval('hibernate_sequence'), a.id, true, " +
+                            "  TIMESTAMP '2020-01-01' + g * INTERVAL '1 minute', TIMESTAMP '2020-01-01' + g * INTERVAL '1 minute' + INTERVAL '30 seconds', " +
+                            "  CASE g % 10 WHEN 0 THEN 'FAILED' WHEN 1 THEN 'CANCELLED' ELSE 'COMPLETED' END " +
+                            "FROM application a CROSS JOIN generate_series(1, :records) g " +
+                            "WHERE a.name LIKE :prefix")
+                    .setParameter("records", RECORDS_PER_APPLICATION)
+                    .setParameter("prefix", prefix + "-%")
+                    .executeUpdate();
+            entityManager.createNativeQuery("ANALYZE deploymentrecord").executeUpdate();
+        });
+        log.infof("Created %d deployment records in %d ms", APPLICATIONS * RECORDS_PER_APPLICATION, (System.nanoTime() - start) / 1_000_000);
+        // One of the applications is being deployed
+        testApplications.addDeploymentRecord(appNames.get(0), null, LocalDateTime.now());
+        applicationId = applicationRepo.findByName(appNames.get(0)).id;
+    }
+
+    @AfterEach
+    public void deleteHistory() {
+        for (String name : appNames) {
+            testApplications.delete(name);
+        }
+    }
+
+    @Test
+    public void testLookupsOverLargeHistory() {
+        // The history is created once, since that takes a while
+        assertIndexScan("SELECT * FROM deploymentrecord WHERE application_id = " + applicationId + " AND endtime IS NULL LIMIT 1");
+        DeploymentRecord record = measure("getRunningDeployment", () -> applicationRepo.getRunningDeployment(appNames.get(0)));
+        assertNotNull(record);
+
+        assertIndexScan("SELECT * FROM deploymentrecord WHERE endtime IS NULL");
+        List<DeploymentRecord> records = measure("getAllRunningDeployments", () -> applicationRepo.getAllRunningDeployments());
+        assertTrue(records.stream().anyMatch(running -> running.application.id == applicationId));
+
+        assertIndexScan("SELECT * FROM deploymentrecord WHERE application_id = " + applicationId +
+                " AND status = 'COMPLETED' ORDER BY starttime DESC LIMIT 1");
+        AppState.StageState state = measure("getStageStatus", () -> applicationRepo.getStageStatus(appNames.get(0)));
+        assertEquals(AppState.StageState.STAGED_CHANGES, state);
+    }
+
+    private void assertIndexScan(String sql) {
+        String plan = QuarkusTransaction.call(() -> {
+            @SuppressWarnings("unchecked")
+            List<String> lines = entityManager.createNativeQuery("EXPLAIN (ANALYZE, BUFFERS) " + sql).getResultList();
+            return String.join("\n", lines);
+        });
+        log.infof("%s\n%s", sql, plan);
+        assertFalse(plan.contains("Seq Scan on deploymentrecord"), plan);
+    }
+
+    private <T> T measure(String name, Supplier<T> query) {
+        T result = null;
+        // Warm up first
+        for (int i = 0; i < ITERATIONS; i++) {
+            result = query.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            result = query.get();
+        }
+        log.infof("%s: %.3f ms on average", name, (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS);
+        return result;
+    }
+}
@@ -0,0 +1,121 @@
+package org.wildfly.managed.repo;
+
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.wildfly.managed.ServerException;
+import org.wildfly.managed.common.model.AppArchive;
+import org.wildfly.managed.common.model.Application;
+import org.wildfly.managed.common.model.DeploymentRecord;
+import org.wildfly.managed.common.value.AppState;
+
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the plain SQL of {@link ReactiveApplicationRepo} against the schema generated for the entities, and checks it
+ * gives the same results as {@link ApplicationRepo}
+ */
+@QuarkusTest
+public class ReactiveApplicationRepoTest {
+
+    @Inject
+    ReactiveApplicationRepo reactiveApplicationRepo;
+
+    @Inject
+    ApplicationRepo applicationRepo;
+
+    @Inject
+    TestApplications testApplications;
+
+    private String appName;
+    private String emptyAppName;
+
+    @BeforeEach
+    public void createApplications() {
+        appName = TestApplications.uniqueName("reactive");
+        testApplications.create(appName, 3, 2);
+        emptyAppName = TestApplications.uniqueName("reactive-empty");
+        testApplications.create(emptyAppName, 0, 0);
+    }
+
+    @AfterEach
+    public void deleteApplications() {
+        testApplications.delete(appName);
+        testApplications.delete(emptyAppName);
+    }
+
+    @Test
+    public void testListWithArchives() {
+        List<Application> applications = reactiveApplicationRepo.listWithArchives().await().indefinitely();
+
+        Application application = find(applications, appName);
+        assertEquals(applicationRepo.findByName(appName).id, application.id);
+        Set<String> fileNames = new TreeSet<>();
+        for (AppArchive archive : application.appArchives) {
+            fileNames.add(archive.fileName);
+            assertEquals("digest-" + archive.fileName.substring("archive-".length(), archive.fileName.indexOf('.')), archive.digest);
+            assertEquals(archive.fileName.equals("archive-0.war"), archive.serverInitCli);
+        }
+        assertEquals(new TreeSet<>(Arrays.asList("archive-0.war", "archive-1.war", "archive-2.war")), fileNames);
+
+        assertTrue(find(applications, emptyAppName).appArchives.isEmpty());
+
+        for (int i = 1; i < applications.size(); i++) {
+            assertTrue(applications.get(i - 1).name.compareTo(applications.get(i).name) < 0, "Not sorted by name");
+        }
+    }
+
+    @Test
+    public void testFindIdByName() {
+        assertEquals(applicationRepo.findByName(appName).id, reactiveApplicationRepo.findIdByName(appName).await().indefinitely());
+        assertNotFound(() -> reactiveApplicationRepo.findIdByName(TestApplications.uniqueName("missing")).await().indefinitely());
+    }
+
+    @Test
+    public void testStageStatus() {
+        // Never deployed
+        assertStageStatus(AppState.StageState.UP_TO_DATE);
+
+        // Deployed before the application was created, so its archives are not deployed
+        testApplications.addDeploymentRecord(appName, DeploymentRecord.Status.COMPLETED, LocalDateTime.now().minusDays(1));
+        assertStageStatus(AppState.StageState.STAGED_CHANGES);
+
+        // Only completed deployments count
+        testApplications.addDeploymentRecord(appName, DeploymentRecord.Status.FAILED, LocalDateTime.now().plusMinutes(1));
+        testApplications.addDeploymentRecord(appName, DeploymentRecord.Status.CANCELLED, LocalDateTime.now().plusMinutes(1));
+        assertStageStatus(AppState.StageState.STAGED_CHANGES);
+
+        testApplications.addDeploymentRecord(appName, DeploymentRecord.Status.COMPLETED, LocalDateTime.now().plusMinutes(1));
+        assertStageStatus(AppState.StageState.UP_TO_DATE);
+
+        assertNotFound(() -> reactiveApplicationRepo.getStageStatus(TestApplications.uniqueName("missing")).await().indefinitely());
+    }
+
+    private void assertStageStatus(AppState.StageState expected) {
+        assertEquals(expected, applicationRepo.getStageStatus(appName));
+        assertEquals(expected, reactiveApplicationRepo.getStageStatus(appName).await().indefinitely());
+    }
+
+    private static Application find(List<Application> applications, String name) {
+        return applications.stream()
+                .filter(application -> application.name.equals(name))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No application called " + name));
+    }
+
+    private static void assertNotFound(Runnable runnable) {
+        ServerException e = assertThrows(ServerException.class, runnable::run);
+        assertEquals(Response.Status.NOT_FOUND, e.getStatus());
+    }
+}
@@ -0,0 +1,125 @@
+package org.wildfly.managed.repo;
+
+import org.wildfly.managed.common.model.AppArchive;
+import org.wildfly.managed.common.model.Application;
+import org.wildfly.managed.common.model.DatabaseConnection;
+import org.wildfly.managed.common.model.DeployJob;
+import org.wildfly.managed.common.model.DeploymentRecord;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Sets up applications in the database for the tests. Each test uses its own application names, since the
+ * database is shared by the tests.
+ */
+@ApplicationScoped
+public class TestApplications {
+
+    @Inject
+    ApplicationRepo applicationRepo;
+
+    @Inject
+    EntityManager entityManager;
+
+    /**
+     * @return a name no other test uses
+     */
+    public static String uniqueName(String prefix) {
+        return prefix + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * Creates an application with archives called 'archive-[n].war', and database connections with the JNDI names
+     * 'java:jboss/datasources/ds-[n]'
+     */
+    @Transactional
+    public Application create(String name, int archives, int connections) {
+        Application application = new Application();
+        application.name = name;
+        application.persist();
+        for (int i = 0; i < archives; i++) {
+            AppArchive archive = new AppArchive();
+            archive.application = application;
+            archive.fileName = "archive-" + i + ".war";
+            archive.digest = "digest-" + i;
+            archive.serverInitCli = i == 0;
+            archive.persist();
+            application.appArchives.add(archive);
+        }
+        for (int i = 0; i < connections; i++) {
+            DatabaseConnection connection = new DatabaseConnection();
+            connection.application = application;
+            connection.type = DatabaseConnection.Type.POSTGRES;
+            connection.jndiName = "java:jboss/datasources/ds-" + i;
+            connection.url = "postgresql://db-" + i + ":5432/db";
+            connection.username = "user";
+            connection.password = "password";
+            connection.persist();
+            application.dbConnections.add(connection);
+        }
+        return application;
+    }
+
+    /**
+     * Adds a deployment record. The record is still running if the status is {@code null}
+     */
+    @Transactional
+    public DeploymentRecord addDeploymentRecord(String name, DeploymentRecord.Status status, LocalDateTime startTime) {
+        Application application = applicationRepo.findByName(name);
+        DeploymentRecord record = new DeploymentRecord();
+        record.application = application;
+        record.startTime = startTime;
+        record.status = status;
+        record.buildTriggered = true;
+        if (status != null) {
+            record.endTime = startTime.plusMinutes(2);
+        }
+        record.persist();
+        return record;
+    }
+
+    /**
+     * Adds a completed deployment record and a completed deploy job with two stages for each entry of the history.
+     * They are inserted with plain SQL, since there can be a lot of them
+     */
+    @Transactional
+    public void addHistory(String name, int entries) {
+        Application application = applicationRepo.findByName(name);
+        entityManager.createNativeQuery(
+                "INSERT INTO deploymentrecord (id, application_id, buildtriggered, starttime, endtime, status) " +
+                        "SELECT nextval('hibernate_sequence'), :applicationId, true, " +
+                        "  TIMESTAMP '2020-01-01' + g * INTERVAL '1 minute', TIMESTAMP '2020-01-01' + g * INTERVAL '1 minute' + INTERVAL '30 seconds', " +
+                        "  'COMPLETED' " +
+                        "FROM generate_series(1, :entries) g")
+                .setParameter("applicationId", application.id)
+                .setParameter("entries", entries)
+                .executeUpdate();
+        entityManager.createNativeQuery(
+                "INSERT INTO deployjob (id, application_id, force, refresh, status, queuedtime, starttime, endtime) " +
+                        "SELECT nextval('hibernate_sequence'), :applicationId, false, false, :status, " +
+                        "  TIMESTAMP '2020-01-01' + g * INTERVAL '1 minute', TIMESTAMP '2020-01-01' + g * INTERVAL '1 minute', " +
+                        "  TIMESTAMP '2020-01-01' + g * INTERVAL '1 minute' + INTERVAL '30 seconds' " +
+                        "FROM generate_series(1, :entries) g")
+                .setParameter("applicationId", application.id)
+                .setParameter("status", DeployJob.Status.COMPLETED.ordinal())
+                .setParameter("entries", entries)
+                .executeUpdate();
+        entityManager.createNativeQuery(
+                "INSERT INTO deployjob_stages (deployjob_id, stages_order, name, starttime, endtime) " +
+                        "SELECT j.id, s.i, s.name, j.starttime, j.endtime " +
+                        "FROM deployjob j CROSS JOIN (VALUES (0, 'prepare'), (1, 'helm')) AS s(i, name) " +
+                        "WHERE j.application_id = :applicationId")
+                .setParameter("applicationId", application.id)
+                .executeUpdate();
+    }
+
+    @Transactional
+    public void delete(String name) {
+        applicationRepo.delete(name);
+    }
+}
@@ -0,0 +1,113 @@
+package org.wildfly.managed.store;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.wildfly.managed.config.UiPaths;
+import org.wildfly.managed.repo.ApplicationRepo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ArchiveStoreTest {
+    private static final String DIGEST = "0123456789abcdef";
+
+    @TempDir
+    Path dir;
+
+    private final Set<String> referenced = new HashSet<>();
+    private ArchiveStore store;
+    private Path storeDir;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        storeDir = Files.createDirectory(dir.resolve("store"));
+        Files.createDirectory(dir.resolve("app"));
+        store = new ArchiveStore();
+        store.uiPaths = new UiPaths() {
+            @Override
+            public Path getArchiveStoreDir() {
+                return storeDir;
+            }
+        };
+        store.applicationRepo = new ApplicationRepo() {
+            @Override
+            public boolean isArchiveDigestReferenced(String digest) {
+                return referenced.contains(digest);
+            }
+        };
+        store.configFileCache = new ConfigFileCache() {
+            @Override
+            public void invalidate(String digest) {
+            }
+        };
+    }
+
+    @Test
+    public void testPinnedBlobIsNotReleased() throws IOException {
+        Path dest = storeAndLink("first.war");
+        assertEquals("contents", Files.readString(dest));
+
+        // Not committed yet, so not referenced
+        store.release(Collections.singleton(DIGEST));
+        assertTrue(Files.exists(storeDir.resolve(DIGEST)));
+
+        // Committed
+        referenced.add(DIGEST);
+        store.unpin(DIGEST);
+        store.release(Collections.singleton(DIGEST));
+        assertTrue(Files.exists(storeDir.resolve(DIGEST)));
+
+        // Deleted
+        referenced.remove(DIGEST);
+        store.release(Collections.singleton(DIGEST));
+        assertFalse(Files.exists(storeDir.resolve(DIGEST)));
+    }
+
+    @Test
+    public void testBlobStaysPinnedUntilAllUploadsAreUnpinned() throws IOException {
+        storeAndLink("first.war");
+        storeAndLink("second.war");
+
+        store.unpin(DIGEST);
+        store.release(Collections.singleton(DIGEST));
+        assertTrue(Files.exists(storeDir.resolve(DIGEST)));
+
+        store.unpin(DIGEST);
+        store.release(Collections.singleton(DIGEST));
+        assertFalse(Files.exists(storeDir.resolve(DIGEST)));
+    }
+
+    @Test
+    public void testRelinkPutsBackPreviousContents() throws IOException {
+        Path dest = storeAndLink("first.war");
+        // Replaced the way storeAndLink() does it, rather than by writing through the link into the blob
+        Files.delete(dest);
+        Files.writeString(dest, "replaced", StandardCharsets.UTF_8);
+
+        assertTrue(store.relink(DIGEST, dest));
+        assertEquals("contents", Files.readString(dest));
+
+        // Released in the meantime
+        store.unpin(DIGEST);
+        store.release(Collections.singleton(DIGEST));
+        assertFalse(store.relink(DIGEST, dest));
+    }
+
+    private Path storeAndLink(String fileName) throws IOException {
+        Path uploaded = Files.writeString(dir.resolve(fileName + ".upload"), "contents", StandardCharsets.UTF_8);
+        Path dest = dir.resolve("app").resolve(fileName);
+        store.storeAndLink(uploaded, DIGEST, dest);
+        assertFalse(Files.exists(uploaded));
+        return dest;
+    }
+}
@@ -0,0 +1,184 @@
+package org.wildfly.managed.store;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.wildfly.managed.ServerException;
+import org.wildfly.managed.common.util.Digests;
+import org.wildfly.managed.common.value.ArchiveUpload;
+import org.wildfly.managed.config.UiPaths;
+
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ArchiveUploadsTest {
+    private static final String APP = "app";
+    private static final int CHUNK_SIZE = 100 * 1024;
+    private static final int THREADS = 16;
+
+    @TempDir
+    Path uploadsDir;
+
+    private byte[] archive;
+    private ArchiveUploads uploads;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        // Two and a half chunks
+        archive = new byte[CHUNK_SIZE * 5 / 2];
+        new Random(1).nextBytes(archive);
+        uploads = createArchiveUploads();
+    }
+
+    @AfterEach
+    public void stop() {
+        uploads.closeSessions(null);
+    }
+
+    @Test
+    public void testConcurrentStartsShareTheUpload() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < 20; round++) {
+                ArchiveUpload request = createRequest();
+                request.fileName = "test-" + round + ".war";
+                CyclicBarrier go = new CyclicBarrier(THREADS);
+                List<Future<String>> ids = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    ids.add(executor.submit(() -> {
+                        go.await();
+                        return uploads.start(APP, request).id;
+                    }));
+                }
+                Set<String> distinct = new HashSet<>();
+                for (Future<String> id : ids) {
+                    distinct.add(id.get(10, TimeUnit.SECONDS));
+                }
+                assertEquals(1, distinct.size(), request.fileName);
+            }
+            // The upload file, its details and its list of received chunks for each
+            assertEquals(20 * 3, listUploadsDir().size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUploadIsResumedAfterRestart() throws IOException {
+        ArchiveUpload upload = uploads.start(APP, createRequest());
+        writeChunk(upload, 0);
+        writeChunk(upload, 2);
+
+        // Restart
+        uploads.closeSessions(null);
+        uploads = createArchiveUploads();
+
+        upload = uploads.start(APP, createRequest());
+        assertEquals(Arrays.asList(0, 2), upload.receivedChunks);
+        writeChunk(upload, 1);
+
+        ArchiveUploads.CompletedUpload completed = uploads.complete(APP, upload.id);
+        assertEquals("test.war", completed.getFileName());
+        assertArrayEquals(archive, Files.readAllBytes(completed.getFile()));
+        // Only the uploaded file is left for the caller to move
+        assertEquals(Collections.singletonList(completed.getFile()), listUploadsDir());
+    }
+
+    @Test
+    public void testChunkWithWrongLengthIsNotReceived() throws IOException {
+        ArchiveUpload upload = uploads.start(APP, createRequest());
+
+        ServerException e = assertThrows(ServerException.class,
+                () -> uploads.writeChunk(APP, upload.id, 0, new ByteArrayInputStream(archive, 0, CHUNK_SIZE - 1)));
+        assertEquals(Response.Status.BAD_REQUEST, e.getStatus());
+        e = assertThrows(ServerException.class,
+                () -> uploads.writeChunk(APP, upload.id, 0, new ByteArrayInputStream(archive, 0, CHUNK_SIZE + 1)));
+        assertEquals(Response.Status.BAD_REQUEST, e.getStatus());
+
+        assertEquals(Collections.emptyList(), uploads.getStatus(APP, upload.id).receivedChunks);
+    }
+
+    @Test
+    public void testCompleteNeedsAllChunks() throws IOException {
+        ArchiveUpload upload = uploads.start(APP, createRequest());
+        writeChunk(upload, 0);
+        writeChunk(upload, 1);
+
+        ServerException e = assertThrows(ServerException.class, () -> uploads.complete(APP, upload.id));
+        assertEquals(Response.Status.CONFLICT, e.getStatus());
+    }
+
+    @Test
+    public void testAbortDeletesTheUpload() throws IOException {
+        ArchiveUpload upload = uploads.start(APP, createRequest());
+        writeChunk(upload, 0);
+
+        uploads.abort(APP, upload.id);
+        assertEquals(Collections.emptyList(), listUploadsDir());
+        ServerException e = assertThrows(ServerException.class, () -> writeChunk(upload, 1));
+        assertEquals(Response.Status.NOT_FOUND, e.getStatus());
+        e = assertThrows(ServerException.class, () -> uploads.complete(APP, upload.id));
+        assertEquals(Response.Status.NOT_FOUND, e.getStatus());
+    }
+
+    private ArchiveUploads createArchiveUploads() throws IOException {
+        ArchiveUploads uploads = new ArchiveUploads();
+        uploads.uiPaths = new UiPaths() {
+            @Override
+            public Path getUploadsDir() {
+                return uploadsDir;
+            }
+        };
+        uploads.restoreSessions(null);
+        return uploads;
+    }
+
+    private ArchiveUpload createRequest() throws IOException {
+        Path file = Files.createTempFile("upload", ".war");
+        try {
+            Files.write(file, archive);
+            ArchiveUpload request = new ArchiveUpload();
+            request.fileName = "test.war";
+            request.size = archive.length;
+            request.chunkSize = CHUNK_SIZE;
+            request.digest = Digests.sha256(file);
+            return request;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private void writeChunk(ArchiveUpload upload, int index) {
+        int offset = index * CHUNK_SIZE;
+        int length = Math.min(CHUNK_SIZE, archive.length - offset);
+        uploads.writeChunk(APP, upload.id, offset, new ByteArrayInputStream(archive, offset, length));
+    }
+
+    private List<Path> listUploadsDir() throws IOException {
+        try (Stream<Path> files = Files.list(uploadsDir)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+}
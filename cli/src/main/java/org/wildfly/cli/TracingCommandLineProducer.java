@@ -0,0 +1,50 @@
+package org.wildfly.cli;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.quarkus.picocli.runtime.PicocliCommandLineFactory;
+import picocli.CommandLine;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Produces;
+import javax.inject.Inject;
+import java.util.stream.Collectors;
+
+/**
+ * Runs each command in a root span named after the command, e.g. 'ms-cli app deploy'. The REST client propagates the
+ * span to the backend, so the whole command ends up in one trace.
+ */
+@ApplicationScoped
+public class TracingCommandLineProducer {
+
+    @Inject
+    Tracer tracer;
+
+    @Produces
+    CommandLine commandLine(PicocliCommandLineFactory factory) {
+        CommandLine commandLine = factory.create();
+        CommandLine.IExecutionStrategy delegate = commandLine.getExecutionStrategy();
+        commandLine.setExecutionStrategy(parseResult -> {
+            String name = parseResult.asCommandLineList().stream()
+                    .map(CommandLine::getCommandName)
+                    .collect(Collectors.joining(" "));
+            Span span = tracer.spanBuilder(name).startSpan();
+            try (Scope ignored = span.makeCurrent()) {
+                int exitCode = delegate.execute(parseResult);
+                if (exitCode != 0) {
+                    span.setStatus(StatusCode.ERROR);
+                }
+                return exitCode;
+            } catch (RuntimeException e) {
+                span.recordException(e);
+                span.setStatus(StatusCode.ERROR);
+                throw e;
+            } finally {
+                span.end();
+            }
+        });
+        return commandLine;
+    }
+}
@@ -2,18 +2,27 @@ package org.wildfly.cli.command;
 
 import org.wildfly.cli.context.CliContext;
 import org.wildfly.cli.rest.client.ApplicationService;
+import org.wildfly.cli.rest.client.ArchiveUploader;
+import org.wildfly.cli.rest.client.ClientHeaderErrorException;
 import org.wildfly.cli.rest.client.DeploymentDto;
 import org.wildfly.cli.util.TableRenderer;
 import org.wildfly.managed.common.model.AppArchive;
 import org.wildfly.managed.common.model.Application;
 import org.wildfly.managed.common.model.DatabaseConnection;
+import org.wildfly.managed.common.model.DeployJob;
 import org.wildfly.managed.common.value.AppState;
+import org.wildfly.managed.common.value.BulkDeploy;
+import org.wildfly.managed.common.value.BulkDeployEvent;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 
 import javax.inject.Inject;
+import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.wildfly.cli.util.ColouredWriter.printlnError;
 import static org.wildfly.cli.util.ColouredWriter.printlnSuccess;
@@ -32,6 +41,7 @@ import static org.wildfly.cli.util.ColouredWriter.printlnWarning;
                 AppCommands.DeployCommand.class,
                 AppCommands.StopCommand.class,
                 AppCommands.StatusCommand.class,
+                AppCommands.RetentionCommand.class,
                 AppCommands.ArchiveCommands.class,
                 AppCommands.DatabaseCommands.class,
                 AppCommands.ConfigCommands.class
@@ -47,6 +57,20 @@ public class AppCommands {
         protected ApplicationService applicationService() {
             return ApplicationService.createInstance(cliContext);
         }
+
+        protected void printStreamError(RuntimeException e) {
+            // Errors from streamed responses are reported through the stream rather than thrown by the call, so are
+            // not handled by the ApplicationService proxy
+            Throwable cause = e;
+            while (cause != null && !(cause instanceof ClientHeaderErrorException)) {
+                cause = cause.getCause();
+            }
+            if (cause == null) {
+                throw e;
+            }
+            printlnError(cause.getMessage());
+            System.exit(1);
+        }
     }
 
     @Command(name = "create", description = "Creates a new application", mixinStandardHelpOptions = true)
@@ -112,6 +136,25 @@ public class AppCommands {
         }
     }
 
+    @Command(name = "retention", description = "Sets how much deployment history to keep for an application. Older deployments are rolled up into daily stats.", mixinStandardHelpOptions = true)
+    static class RetentionCommand extends BaseAppCommand {
+        @CommandLine.Option(names = {"-n", "--name"}, description = "Name of the application. If omitted, the current application is used.")
+        String appName;
+
+        @CommandLine.Option(names = {"-k", "--keep"}, description = "The number of deployments to keep. 0 means no limit. If omitted, the server default is used.")
+        Integer keep;
+
+        @CommandLine.Option(names = {"-d", "--max-age-days"}, description = "The number of days to keep deployments for. 0 means no limit. If omitted, the server default is used.")
+        Integer maxAgeDays;
+
+        @Override
+        public void run() {
+            ApplicationSelector appSelector = ApplicationSelector.create(cliContext, appName);
+            applicationService().setRetention(appSelector.name, keep, maxAgeDays);
+            printlnSuccess("Deployment history retention for '" + appSelector.name + "' updated");
+        }
+    }
+
     @Command(name = "get", description = "Gets information about an application", mixinStandardHelpOptions = true)
     static class GetCommand extends BaseAppCommand {
 
@@ -177,7 +220,7 @@ public class AppCommands {
         @Override
         public void run() {
             cliContext.getActiveApp();
-            List<Application> applications = applicationService().list();
+            Map<String, AppState> applications = applicationService().listStatus();
             if (applications.size() == 0) {
                 System.out.println(Renderers.INDENT + "No applications");
             } else {
@@ -187,12 +230,13 @@ public class AppCommands {
                         .addColumn(15, "Deployment")
                         .addColumn(15, "Build")
                         .build();
-                for (Application application : applications) {
-                    AppState appState = applicationService().status(application.name);
-                    String activeMarker = application.name.equals(activeApp) ? "* " : "";
+                for (Map.Entry<String, AppState> entry : applications.entrySet()) {
+                    String name = entry.getKey();
+                    AppState appState = entry.getValue();
+                    String activeMarker = name.equals(activeApp) ? "* " : "";
                     outputter.addRow()
                             .addColumns(
-                                    activeMarker + application.name,
+                                    activeMarker + name,
                                     appState.getDeploymentState().toString(),
                                     appState.getBuildState().toString())
                             .output();
@@ -207,7 +251,7 @@ public class AppCommands {
         @CommandLine.Option(names = {"-n", "--name"}, description = "Name of the application. If omitted, the current application is used.")
         String appName;
 
-        @CommandLine.Option(names = {"-f", "--force"}, description = "Cancel any running builds and deploy")
+        @CommandLine.Option(names = {"-f", "--force"}, description = "Cancel any running builds and deploy, even if nothing changed since the last deployment")
         boolean force;
 
         @CommandLine.Option(names = {"-r", "--refresh"}, description = "Refreshes the archives in a running application.")
@@ -216,19 +260,117 @@ public class AppCommands {
         @CommandLine.Option(names = {"-c", "--cancel"}, description = "Cancel any running builds to abort an in-progress deploy")
         boolean cancel;
 
+        @CommandLine.Option(names = {"-w", "--wait"}, description = "Wait for the queued deploy to trigger the build, showing its progress")
+        boolean wait;
+
+        // The bulk options always show the progress of the deploys until they are all done
+        @CommandLine.Option(names = {"--all"}, description = "Deploy all the applications")
+        boolean all;
+
+        @CommandLine.Option(names = {"--apps"}, split = ",", paramLabel = "<name>", description = "Comma separated names of the applications to deploy")
+        List<String> apps;
+
+        @CommandLine.Option(names = {"-l", "--selector"}, description = "Deploy the applications whose deployments match this label selector, e.g. 'team=payments,tier'")
+        String selector;
+
         @Override
         public void run() {
-            if (cancel && (force || refresh)) {
-                printlnError("--cancel can't be used in conjunction with --force or --refresh");
+            if (cancel && (force || refresh || wait)) {
+                printlnError("--cancel can't be used in conjunction with --force, --refresh or --wait");
                 System.exit(1);
             }
+            int bulkOptions = (all ? 1 : 0) + (apps != null ? 1 : 0) + (selector != null ? 1 : 0);
+            if (bulkOptions > 0) {
+                if (bulkOptions > 1 || appName != null || cancel) {
+                    printlnError("Only one of --all, --apps and --selector can be used, and not in conjunction with --name or --cancel");
+                    System.exit(1);
+                }
+                deployAll();
+                return;
+            }
             ApplicationSelector appSelector = ApplicationSelector.create(cliContext, appName);
             System.out.println("Deploying application...");
-            applicationService().deploy(appSelector.name, force, refresh, cancel);
-            if (!cancel) {
-                printlnSuccess("Application deployment registered. Monitor the status with 'app status'");
-            } else {
+            DeployJob job = applicationService().deploy(appSelector.name, force, refresh, cancel);
+            if (cancel) {
                 printlnSuccess("Application deployment cancelled.");
+            } else if (!wait) {
+                printlnSuccess("Application deployment queued as job " + job.id + ". Monitor the status with 'app status --watch'");
+            } else {
+                waitForJob(appSelector.name, job);
+            }
+        }
+
+        private void deployAll() {
+            BulkDeploy request = new BulkDeploy();
+            request.all = all;
+            if (apps != null) {
+                request.apps = apps;
+            }
+            request.selector = selector;
+            request.force = force;
+            request.refresh = refresh;
+            System.out.println("Deploying applications...");
+
+            // The server sends the queued jobs first, and then each change to them until they are all done
+            Map<String, Integer> reported = new LinkedHashMap<>();
+            List<String> failed = new ArrayList<>();
+            try {
+                for (BulkDeployEvent event : applicationService().deployAll(request).subscribe().asIterable()) {
+                    DeployJob job = event.job;
+                    if (!reported.containsKey(event.appName)) {
+                        reported.put(event.appName, 0);
+                        System.out.println(event.appName + ": deployment queued as job " + job.id);
+                        continue;
+                    }
+                    int count = reported.get(event.appName);
+                    for (; count < job.stages.size(); count++) {
+                        System.out.println(event.appName + ": deploy stage: " + job.stages.get(count).name);
+                    }
+                    reported.put(event.appName, count);
+                    if (job.status == DeployJob.Status.COMPLETED) {
+                        printlnSuccess(event.appName + ": " + (job.buildName == null ?
+                                "nothing changed since the last deployment, so no build was needed." :
+                                "application build " + job.buildName + " started."));
+                    } else if (job.isDone()) {
+                        failed.add(event.appName);
+                        printlnError(event.appName + ": deployment " + job.status.toString().toLowerCase() + (job.error == null ? "" : ": " + job.error));
+                    }
+                }
+            } catch (RuntimeException e) {
+                printStreamError(e);
+            }
+            if (!failed.isEmpty()) {
+                printlnError(failed.size() + " of " + reported.size() + " application deployments failed: " + String.join(", ", failed));
+                System.exit(1);
+            } else {
+                printlnSuccess("All " + reported.size() + " application deployments done. Monitor the status with 'app list'");
+            }
+        }
+
+        private void waitForJob(String appName, DeployJob job) {
+            int reported = 0;
+            while (true) {
+                for (; reported < job.stages.size(); reported++) {
+                    System.out.println("Deploy stage: " + job.stages.get(reported).name);
+                }
+                if (job.isDone()) {
+                    break;
+                }
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                job = applicationService().getDeployJob(appName, job.id);
+            }
+            if (job.status == DeployJob.Status.COMPLETED) {
+                printlnSuccess(job.buildName == null ?
+                        "Nothing changed since the last deployment, so no build was needed." :
+                        "Application build " + job.buildName + " started. Monitor the status with 'app status --watch'");
+            } else {
+                printlnError("Application deployment " + job.status.toString().toLowerCase() + (job.error == null ? "" : ": " + job.error));
+                System.exit(1);
             }
         }
     }
@@ -238,11 +380,29 @@ public class AppCommands {
         @CommandLine.Option(names = {"-n", "--name"}, description = "Name of the application. If omitted, the current application is used.")
         String appName;
 
+        @CommandLine.Option(names = {"-w", "--watch"}, description = "Keep showing the status as it changes, until interrupted")
+        boolean watch;
+
         @Override
         public void run() {
             ApplicationSelector appSelector = ApplicationSelector.create(cliContext, appName);
-            AppState appStatus = applicationService().status(appSelector.name);
-            Renderers.renderAppStatus(appStatus);
+            if (!watch) {
+                AppState appStatus = applicationService().status(appSelector.name);
+                Renderers.renderAppStatus(appStatus);
+                return;
+            }
+            try {
+                boolean first = true;
+                for (AppState appStatus : applicationService().statusStream(appSelector.name).subscribe().asIterable()) {
+                    if (!first) {
+                        System.out.println();
+                    }
+                    first = false;
+                    Renderers.renderAppStatus(appStatus);
+                }
+            } catch (RuntimeException e) {
+                printStreamError(e);
+            }
         }
     }
 
@@ -259,6 +419,17 @@ public class AppCommands {
             })
     static final class ArchiveCommands {
 
+        static abstract class BaseArchiveUploadCommand extends BaseAppCommand {
+            void upload(String appName, java.nio.file.Path path, boolean replace) {
+                try {
+                    new ArchiveUploader(applicationService(), appName).upload(path, replace);
+                } catch (IOException e) {
+                    printlnError(e.getMessage());
+                    System.exit(1);
+                }
+            }
+        }
+
         @Command(name = "list", description = "List archives in the application.", mixinStandardHelpOptions = true)
         static class ListCommand extends BaseAppCommand {
             @CommandLine.Option(names = {"-n", "--name"}, description = "Name of the application. If omitted, the current application is used.")
@@ -274,7 +445,7 @@ public class AppCommands {
         }
 
         @Command(name = "add", description = "Add one or more archives to the application.", mixinStandardHelpOptions = true)
-        static class AddCommand extends BaseAppCommand {
+        static class AddCommand extends BaseArchiveUploadCommand {
             @CommandLine.Option(names = {"-n", "--name"}, description = "Name of the application. If omitted, the current application is used.")
             String appName;
 
@@ -299,19 +470,18 @@ public class AppCommands {
                         printlnError(path + " is a directory");
                         System.exit(1);
                     }
-                    DeploymentDto dto = new DeploymentDto(path);
                     String fileName = path.getFileName().toString();
                     System.out.println("Adding " + fileName + " to application " + appSelector.name + "");
 
                     System.out.println("Uploading " + fileName + "...");
-                    applicationService().addArchive(appSelector.name, dto);
+                    upload(appSelector.name, path, false);
                     printlnSuccess(fileName + " uploaded.");
                 }
             }
         }
 
         @Command(name = "replace", description = "Replaces one or more archives in the application.", mixinStandardHelpOptions = true)
-        static class ReplaceCommand extends BaseAppCommand {
+        static class ReplaceCommand extends BaseArchiveUploadCommand {
 
             @CommandLine.Option(names = {"-n", "--name"}, description = "Name of the application. If omitted, the current application is used.")
             String appName;
@@ -332,10 +502,9 @@ public class AppCommands {
                         printlnError(path + " is a directory");
                         System.exit(1);
                     }
-                    DeploymentDto dto = new DeploymentDto(path);
                     String fileName = path.getFileName().toString();
                     System.out.println("Uploading " + fileName + " to application " + appSelector.name + " for replacement...");
-                    applicationService().replaceArchive(appSelector.name, fileName, dto);
+                    upload(appSelector.name, path, true);
                     printlnSuccess("Upload done");
                 }
             }
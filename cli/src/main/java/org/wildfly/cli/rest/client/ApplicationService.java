@@ -1,15 +1,21 @@
 package org.wildfly.cli.rest.client;
 
+import io.smallrye.mutiny.Multi;
 import org.eclipse.microprofile.rest.client.RestClientBuilder;
 import org.eclipse.microprofile.rest.client.annotation.RegisterProvider;
 import org.jboss.resteasy.reactive.MultipartForm;
 import org.jboss.resteasy.reactive.ResponseStatus;
+import org.jboss.resteasy.reactive.RestStreamElementType;
 import org.wildfly.cli.context.CliContext;
 import org.wildfly.cli.util.ColouredWriter;
 import org.wildfly.managed.common.model.AppArchive;
 import org.wildfly.managed.common.model.Application;
 import org.wildfly.managed.common.model.DatabaseConnection;
+import org.wildfly.managed.common.model.DeployJob;
 import org.wildfly.managed.common.value.AppState;
+import org.wildfly.managed.common.value.ArchiveUpload;
+import org.wildfly.managed.common.value.BulkDeploy;
+import org.wildfly.managed.common.value.BulkDeployEvent;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
@@ -26,6 +32,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.util.List;
+import java.util.Map;
 
 @Path("/app")
 @RegisterProvider(ClientHeaderErrorReader.class)
@@ -33,6 +40,10 @@ public interface ApplicationService {
     @GET
     List<Application> list();
 
+    @GET
+    @Path("/status")
+    Map<String, AppState> listStatus();
+
     @POST
     Application create(Application application);
 
@@ -46,13 +57,28 @@ public interface ApplicationService {
 
     @POST
     @Path("/{name}/deploy")
-    void deploy(String name, @QueryParam("force") Boolean force, @QueryParam("refresh") Boolean refresh, @QueryParam("cancel") boolean cancel);
+    DeployJob deploy(String name, @QueryParam("force") Boolean force, @QueryParam("refresh") Boolean refresh, @QueryParam("cancel") boolean cancel);
+
+    @POST
+    @Path("/deploy")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    Multi<BulkDeployEvent> deployAll(BulkDeploy request);
+
+    @GET
+    @Path("/{name}/deploy/{jobId}")
+    DeployJob getDeployJob(String name, long jobId);
 
     @ResponseStatus(204) // NO_CONTENT
     @PUT
     @Path("/{appName}/stop")
     void stop(String appName);
 
+    @ResponseStatus(204) // NO_CONTENT
+    @PUT
+    @Path("/{appName}/retention")
+    void setRetention(String appName, @QueryParam("keep") Integer keep, @QueryParam("maxAgeDays") Integer maxAgeDays);
+
     @GET
     @Path("/{appName}/archive")
     List<AppArchive> listArchives(String appName);
@@ -69,6 +95,19 @@ public interface ApplicationService {
     @Path("/{appName}/archive/{archiveName}")
     void replaceArchive(String appName, String archiveName, @MultipartForm DeploymentDto dto);
 
+    @POST
+    @Path("/{appName}/archive/upload")
+    ArchiveUpload startArchiveUpload(String appName, ArchiveUpload upload);
+
+    @PUT
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/{appName}/archive/upload/{uploadId}")
+    void uploadArchiveChunk(String appName, String uploadId, @QueryParam("offset") long offset, byte[] chunk);
+
+    @POST
+    @Path("/{appName}/archive/upload/{uploadId}/complete")
+    void completeArchiveUpload(String appName, String uploadId);
+
     @DELETE
     @Path("/{appName}/archive/{archiveName}")
     void deleteArchive(String appName, String archiveName);
@@ -91,6 +130,12 @@ public interface ApplicationService {
     @Path("/{appName}/status")
     AppState status(String appName);
 
+    @GET
+    @Path("/{appName}/status/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    Multi<AppState> statusStream(String appName);
+
     @GET
     @Path("/{appName}/routes")
     List<String> routes(String appName);
@@ -115,8 +160,11 @@ public interface ApplicationService {
                     return method.invoke(service, args);
                 } catch (InvocationTargetException e) {
                     if (e.getCause() instanceof ClientHeaderErrorException) {
-                        ColouredWriter.printlnError(e.getCause().getMessage());
-                        System.exit(1);
+                        // Server errors of chunk uploads are retried by the ArchiveUploader
+                        if (!method.getName().equals("uploadArchiveChunk") || ((ClientHeaderErrorException) e.getCause()).getStatus() < 500) {
+                            ColouredWriter.printlnError(e.getCause().getMessage());
+                            System.exit(1);
+                        }
                     }
                     throw e.getCause();
                 } catch (Throwable throwable) {
@@ -0,0 +1,126 @@
+package org.wildfly.cli.rest.client;
+
+import org.wildfly.managed.common.util.Digests;
+import org.wildfly.managed.common.value.ArchiveUpload;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads archives in chunks, several at a time. Chunks which fail with a connection or server error are retried,
+ * and if the upload is interrupted running the same command again only uploads the chunks the server does not have
+ * yet.
+ */
+public class ArchiveUploader {
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int PARALLEL_CHUNKS = 4;
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final ApplicationService applicationService;
+    private final String appName;
+
+    public ArchiveUploader(ApplicationService applicationService, String appName) {
+        this.applicationService = applicationService;
+        this.appName = appName;
+    }
+
+    public void upload(Path path, boolean replace) throws IOException {
+        ArchiveUpload request = new ArchiveUpload();
+        request.fileName = path.getFileName().toString();
+        request.size = Files.size(path);
+        request.chunkSize = CHUNK_SIZE;
+        request.digest = Digests.sha256(path);
+        request.replace = replace;
+
+        ArchiveUpload upload = applicationService.startArchiveUpload(appName, request);
+        Set<Integer> received = new HashSet<>(upload.receivedChunks);
+        int chunkCount = upload.getChunkCount();
+        if (received.size() > 0) {
+            System.out.println("Resuming upload. " + received.size() + " of " + chunkCount + " chunks were already uploaded.");
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_CHUNKS);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < chunkCount; i++) {
+                if (!received.contains(i)) {
+                    final long offset = (long) i * upload.chunkSize;
+                    futures.add(executor.submit(() -> uploadChunk(channel, upload, offset)));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Upload of " + path + " interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Upload of " + path + " failed. Run the command again to resume the upload.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        applicationService.completeArchiveUpload(appName, upload.id);
+    }
+
+    private Void uploadChunk(FileChannel channel, ArchiveUpload upload, long offset) throws IOException, InterruptedException {
+        int length = (int) Math.min(upload.chunkSize, upload.size - offset);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read == -1) {
+                throw new IOException("The archive changed while it was being uploaded");
+            }
+            position += read;
+        }
+        byte[] chunk = buffer.array();
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                applicationService.uploadArchiveChunk(appName, upload.id, offset, chunk);
+                return null;
+            } catch (RuntimeException e) {
+                if (attempt == MAX_ATTEMPTS || !isRetryable(e)) {
+                    throw e;
+                }
+                Thread.sleep(1000L * attempt);
+            }
+        }
+    }
+
+    /**
+     * Connection problems and server errors may go away, but client errors such as a bad chunk or an unknown upload
+     * won't, so those are not retried
+     */
+    private static boolean isRetryable(RuntimeException e) {
+        boolean connectionError = false;
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            // The status of an error response is checked first, since the client may wrap it in a ProcessingException
+            if (cause instanceof ClientHeaderErrorException) {
+                return ((ClientHeaderErrorException) cause).getStatus() >= 500;
+            }
+            if (cause instanceof WebApplicationException) {
+                return ((WebApplicationException) cause).getResponse().getStatus() >= 500;
+            }
+            if (cause instanceof ProcessingException || cause instanceof IOException) {
+                connectionError = true;
+            }
+        }
+        return connectionError;
+    }
+}
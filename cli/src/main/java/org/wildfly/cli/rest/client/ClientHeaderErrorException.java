@@ -1,7 +1,17 @@
 package org.wildfly.cli.rest.client;
 
 public class ClientHeaderErrorException extends RuntimeException {
-    public ClientHeaderErrorException(String message) {
+    private final int status;
+
+    public ClientHeaderErrorException(int status, String message) {
         super(message);
+        this.status = status;
+    }
+
+    /**
+     * @return the HTTP status code of the response
+     */
+    public int getStatus() {
+        return status;
     }
 }
@@ -28,7 +28,7 @@ public class ClientHeaderErrorReader implements ClientResponseFilter {
 
             if (errorMessage != null) {
                 errorMessage = "ERROR: " + errorMessage;
-                throw new ClientHeaderErrorException(errorMessage);
+                throw new ClientHeaderErrorException(responseContext.getStatus(), errorMessage);
             }
         }
     }
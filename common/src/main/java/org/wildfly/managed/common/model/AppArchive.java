@@ -3,6 +3,7 @@ package org.wildfly.managed.common.model;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -10,6 +11,7 @@ import javax.persistence.UniqueConstraint;
 import java.util.Objects;
 
 @Entity
+@Cacheable
 @Table(
         uniqueConstraints = {
                 @UniqueConstraint(columnNames = {
@@ -25,6 +27,9 @@ public class AppArchive extends PanacheEntity {
 
     public String fileName;
 
+    // SHA-256 of the archive contents, used to find it in the content addressed archive store
+    public String digest;
+
     public boolean serverConfigXml;
 
     public boolean serverInitCli;
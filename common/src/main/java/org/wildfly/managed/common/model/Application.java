@@ -3,10 +3,15 @@ package org.wildfly.managed.common.model;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.LazyGroup;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 import org.hibernate.annotations.Type;
 
 import javax.persistence.Basic;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.OneToMany;
@@ -20,10 +25,14 @@ import java.util.List;
 import static javax.persistence.FetchType.LAZY;
 
 @Entity
+@Cacheable
+@NaturalIdCache
 public class Application extends PanacheEntity {
+    @NaturalId
     @Column(unique = true)
     public String name;
 
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @OneToMany(mappedBy = "application")
     public Collection<AppArchive> appArchives = new HashSet<>();
 
@@ -36,6 +45,7 @@ public class Application extends PanacheEntity {
     @JsonIgnore
     @Basic(fetch = LAZY)
     @LazyGroup("dbConnection")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @OneToMany(mappedBy = "application")
     public List<DatabaseConnection> dbConnections = new ArrayList<>();
 
@@ -66,6 +76,11 @@ public class Application extends PanacheEntity {
     @Column(columnDefinition = "TIMESTAMP")
     public LocalDateTime lastArchiveChange;
 
+    // Deployment history retention. Null means use the server default, and 0 means no limit
+    public Integer historyKeep;
+
+    public Integer historyMaxAgeDays;
+
     @PrePersist
     public void prePersist() {
         lastConfigChange = LocalDateTime.now();
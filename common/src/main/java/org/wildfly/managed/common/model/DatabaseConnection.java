@@ -3,12 +3,14 @@ package org.wildfly.managed.common.model;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 
 @Entity
+@Cacheable
 @Table(
         uniqueConstraints = {
                 @UniqueConstraint(columnNames = {
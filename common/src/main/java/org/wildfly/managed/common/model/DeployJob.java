@@ -0,0 +1,67 @@
+package org.wildfly.managed.common.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.ManyToOne;
+import javax.persistence.OrderColumn;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A queued request to deploy an application. The deploy itself happens in the background, and the job records how
+ * far it has got.
+ */
+@Entity
+public class DeployJob extends PanacheEntity {
+
+    @JsonIgnore
+    @ManyToOne
+    public Application application;
+
+    public boolean force;
+
+    public boolean refresh;
+
+    @Enumerated(EnumType.ORDINAL)
+    public Status status;
+
+    @Column(columnDefinition = "TIMESTAMP")
+    public LocalDateTime queuedTime;
+
+    @Column(columnDefinition = "TIMESTAMP")
+    public LocalDateTime startTime;
+
+    @Column(columnDefinition = "TIMESTAMP")
+    public LocalDateTime endTime;
+
+    // The name of the triggered build, if any
+    public String buildName;
+
+    @Column(length = 2048)
+    public String error;
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @OrderColumn
+    public List<DeployJobStage> stages = new ArrayList<>();
+
+    @JsonIgnore
+    public boolean isDone() {
+        return status != Status.QUEUED && status != Status.RUNNING;
+    }
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+}
@@ -0,0 +1,17 @@
+package org.wildfly.managed.common.model;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import java.time.LocalDateTime;
+
+@Embeddable
+public class DeployJobStage {
+
+    public String name;
+
+    @Column(columnDefinition = "TIMESTAMP")
+    public LocalDateTime startTime;
+
+    @Column(columnDefinition = "TIMESTAMP")
+    public LocalDateTime endTime;
+}
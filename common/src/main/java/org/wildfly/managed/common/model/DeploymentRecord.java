@@ -7,10 +7,20 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
 import java.time.LocalDateTime;
 
 @Entity
+@Table(
+        indexes = {
+                // Finding the running deployment of an application
+                @Index(name = "deploymentrecord_app_end_idx", columnList = "application_id, endTime"),
+                // Finding the last completed deployment of an application
+                @Index(name = "deploymentrecord_app_status_start_idx", columnList = "application_id, status, startTime DESC")
+        }
+)
 public class DeploymentRecord extends PanacheEntity {
 
     @JsonIgnore
@@ -25,9 +35,18 @@ public class DeploymentRecord extends PanacheEntity {
     @Column(columnDefinition = "TIMESTAMP")
     public LocalDateTime endTime;
 
-    @Enumerated(EnumType.ORDINAL)
+    // Mapped by name, since the status is also queried with plain SQL
+    @Enumerated(EnumType.STRING)
     public Status status;
 
+    // Fingerprint of the archives, configs, database connections and Helm chart that went into the build
+    public String fingerprint;
+
+    // The archives that went into the build, as 'fileName=digest' lines. Refresh builds only upload the archives
+    // which changed since the last completed deployment
+    @Column(columnDefinition = "TEXT")
+    public String archiveDigests;
+
     boolean isLocked() {
         return endTime == null;
     }
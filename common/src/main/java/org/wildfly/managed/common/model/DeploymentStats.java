@@ -0,0 +1,44 @@
+package org.wildfly.managed.common.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+
+import javax.persistence.Entity;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import java.time.LocalDate;
+
+/**
+ * Daily totals of the {@link DeploymentRecord}s of an application which have been removed by the history retention
+ * policy.
+ */
+@Entity
+@Table(
+        uniqueConstraints = {
+                @UniqueConstraint(columnNames = {
+                        "application_id",
+                        "statsDate"})
+        }
+)
+public class DeploymentStats extends PanacheEntity {
+
+    @JsonIgnore
+    @ManyToOne
+    public Application application;
+
+    public LocalDate statsDate;
+
+    public int completed;
+
+    public int failed;
+
+    public int cancelled;
+
+    public int buildsTriggered;
+
+    // Summed over the deployments which ended, to work out the average
+    public long totalDurationMillis;
+
+    public long maxDurationMillis;
+}
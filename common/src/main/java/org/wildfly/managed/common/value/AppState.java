@@ -1,6 +1,7 @@
 package org.wildfly.managed.common.value;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * The status of the app on OpenShift
@@ -29,6 +30,25 @@ public class AppState implements Serializable {
         return stageState;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AppState appState = (AppState) o;
+        return deploymentState == appState.deploymentState
+                && buildState == appState.buildState
+                && stageState == appState.stageState;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(deploymentState, buildState, stageState);
+    }
+
     // Whether the application is deployed or not
     public enum DeploymentState {
         NOT_DEPLOYED,
@@ -0,0 +1,34 @@
+package org.wildfly.managed.common.value;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A chunked upload of an archive. The client sends the file name, size, chunk size and SHA-256 digest of the
+ * archive to start the upload, and gets back the id of the upload and which chunks the server already has.
+ * Starting an upload of the same archive again resumes the existing upload.
+ */
+public class ArchiveUpload {
+    public String id;
+
+    public String fileName;
+
+    public long size;
+
+    public int chunkSize;
+
+    public String digest;
+
+    // Whether the archive replaces an existing archive, or is added to the application
+    public boolean replace;
+
+    // The indices of the chunks the server has received
+    public List<Integer> receivedChunks = new ArrayList<>();
+
+    @JsonIgnore
+    public int getChunkCount() {
+        return (int) ((size + chunkSize - 1) / chunkSize);
+    }
+}
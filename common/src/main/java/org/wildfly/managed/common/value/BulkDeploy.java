@@ -0,0 +1,23 @@
+package org.wildfly.managed.common.value;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A request to deploy several applications at once. Exactly one of {@link #apps}, {@link #selector} and
+ * {@link #all} picks the applications to deploy.
+ */
+public class BulkDeploy {
+    // The names of the applications to deploy
+    public List<String> apps = new ArrayList<>();
+
+    // A label selector, e.g. 'team=payments,tier', matched against the labels of the application deployments
+    public String selector;
+
+    // Deploy all the applications
+    public boolean all;
+
+    public boolean force;
+
+    public boolean refresh;
+}
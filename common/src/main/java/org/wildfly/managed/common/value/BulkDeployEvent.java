@@ -0,0 +1,21 @@
+package org.wildfly.managed.common.value;
+
+import org.wildfly.managed.common.model.DeployJob;
+
+/**
+ * Progress of one of the applications in a bulk deploy. One is sent each time the deploy job of an application
+ * changes.
+ */
+public class BulkDeployEvent {
+    public String appName;
+
+    public DeployJob job;
+
+    public BulkDeployEvent() {
+    }
+
+    public BulkDeployEvent(String appName, DeployJob job) {
+        this.appName = appName;
+        this.job = job;
+    }
+}